@@ -3,7 +3,10 @@ package ru.biosoft.graphics;
 import java.awt.Point;
 import java.awt.Polygon;
 import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.geom.GeneralPath;
+import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.util.Arrays;
 
@@ -278,6 +281,69 @@ public class ArrowView extends CompositeView
     public ArrowView(JSONObject json)
     {
         super( json );
+        restorePath();
+    }
+
+    /**
+     * Restores path from the first child read from JSON: path view of the arrow created by path or line of the straight arrow.
+     */
+    private void restorePath()
+    {
+        View first = size() > 0 ? elementAt(0) : null;
+        if( first instanceof PathView )
+        {
+            pathView = (PathView)first;
+            path = toSimplePath(pathView.getShape());
+        }
+        else if( first instanceof LineView && first.getShape() instanceof Line2D )
+        {
+            Line2D line = (Line2D)first.getShape();
+            path = new SimplePath(new Point((int)Math.round(line.getX1()), (int)Math.round(line.getY1())),
+                    new Point((int)Math.round(line.getX2()), (int)Math.round(line.getY2())));
+        }
+    }
+
+    /**
+     * Converts shape to the path with the same point types as used by {@link #ArrowView(Pen, Brush, SimplePath, Tip, Tip)}.
+     */
+    private static SimplePath toSimplePath(Shape shape)
+    {
+        int[] xpoints = new int[16];
+        int[] ypoints = new int[16];
+        int[] pointTypes = new int[16];
+        int npoints = 0;
+        float[] coords = new float[6];
+        for( PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next() )
+        {
+            int segment = it.currentSegment(coords);
+            int count = segment == PathIterator.SEG_QUADTO ? 2 : segment == PathIterator.SEG_CUBICTO ? 3
+                    : segment == PathIterator.SEG_CLOSE ? 0 : 1;
+            if( npoints + count > xpoints.length )
+            {
+                xpoints = Arrays.copyOf(xpoints, xpoints.length * 2);
+                ypoints = Arrays.copyOf(ypoints, ypoints.length * 2);
+                pointTypes = Arrays.copyOf(pointTypes, pointTypes.length * 2);
+            }
+            for( int i = 0; i < count; i++ )
+            {
+                xpoints[npoints + i] = Math.round(coords[i * 2]);
+                ypoints[npoints + i] = Math.round(coords[i * 2 + 1]);
+            }
+            if( count > 1 )
+                pointTypes[npoints] = count - 1;
+            npoints += count;
+        }
+        return new SimplePath(Arrays.copyOf(xpoints, npoints), Arrays.copyOf(ypoints, npoints), Arrays.copyOf(pointTypes, npoints),
+                npoints);
+    }
+
+    /**
+     * Path is restored from the children in the JSON constructor, so the arrow is written and created as a whole.
+     */
+    @Override
+    protected boolean isStreamable()
+    {
+        return false;
     }
 
     /**
@@ -325,21 +391,7 @@ public class ArrowView extends CompositeView
             return true;
         }
 
-        if( path == null || path.npoints < 2 )
-            return false;
-
-        Point offset = getPathOffset();
-        Rectangle correctedRect = new Rectangle(rect.x - offset.x, rect.y - offset.y, rect.width, rect.height);
-
-        for( int i = 1; i < path.npoints - 1; i++ )
-        {
-            if( correctedRect.contains(path.xpoints[i], path.ypoints[i]) )
-            {
-                return true;
-            }
-        }
-
-        return false;
+        return containsControlPoint(rect);
     }
 
     /**
@@ -351,20 +403,42 @@ public class ArrowView extends CompositeView
     @Override
     public int getSelectionPriority(Rectangle rect)
     {
-        if( path == null || path.npoints < 2 )
-            return 0;
-        
-        Point offset = getPathOffset();
-        Rectangle correctedRect = new Rectangle(rect.x - offset.x, rect.y - offset.y, rect.width, rect.height);
+        return containsControlPoint(rect) ? 1 : 0;
+    }
+
+    /**
+     * Checks whether some inner point of the path lies inside the rectangle.
+     * Works without allocations as it is called for every arrow under cursor during hit-testing.
+     */
+    private boolean containsControlPoint(Rectangle rect)
+    {
+        if( path == null || path.npoints < 2 || rect.width <= 0 || rect.height <= 0 )
+            return false;
+
+        // same as getPathOffset()
+        validateBounds();
+        int minX = path.xpoints[0];
+        int minY = path.ypoints[0];
+        for( int i = 1; i < path.npoints; i++ )
+        {
+            if( path.xpoints[i] < minX )
+                minX = path.xpoints[i];
+            if( path.ypoints[i] < minY )
+                minY = path.ypoints[i];
+        }
+        long x = (long)rect.x - ( this.rect.x - minX );
+        long y = (long)rect.y - ( this.rect.y - minY );
 
         for( int i = 1; i < path.npoints - 1; i++ )
         {
-            if( correctedRect.contains(path.xpoints[i], path.ypoints[i]) )
+            int px = path.xpoints[i];
+            int py = path.ypoints[i];
+            if( px >= x && py >= y && px < x + rect.width && py < y + rect.height )
             {
-                return 1;
+                return true;
             }
         }
-        return 0;
+        return false;
     }
 
     public PathView getPathView()
@@ -377,7 +451,32 @@ public class ArrowView extends CompositeView
     {
         if(obj == null || !(obj instanceof ArrowView)) return false;
         if(!super.equals(obj)) return false;
-        ArrowView v = (ArrowView)obj;
+        return pathEquals((ArrowView)obj);
+    }
+
+    @Override
+    protected int computeContentHash()
+    {
+        int result = super.computeContentHash();
+        if( path == null )
+            return result;
+        result = 31 * result + Arrays.hashCode(path.xpoints);
+        result = 31 * result + Arrays.hashCode(path.ypoints);
+        result = 31 * result + Arrays.hashCode(path.pointTypes);
+        return result;
+    }
+
+    @Override
+    protected boolean equalsIgnoringChildren(CompositeView obj)
+    {
+        if(!(obj instanceof ArrowView)) return false;
+        if(!super.equalsIgnoringChildren(obj)) return false;
+        return pathEquals((ArrowView)obj);
+    }
+
+    private boolean pathEquals(ArrowView v)
+    {
+        if(v.getPath() == null || path == null) return v.getPath() == path;
         if(v.getPath().npoints != path.npoints) return false;
         if(!Arrays.equals(v.getPath().xpoints, path.xpoints)) return false;
         if(!Arrays.equals(v.getPath().ypoints, path.ypoints)) return false;
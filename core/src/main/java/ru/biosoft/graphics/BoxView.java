@@ -58,17 +58,32 @@ public class BoxView extends ShapeView
         return rect;
     }
 
+    @Override
+    public Rectangle getBounds(Rectangle rv)
+    {
+        if( !( shape instanceof RectangularShape ) )
+            return super.getBounds(rv);
+
+        RectangularShape r = (RectangularShape)shape;
+        setBounds(rv, r.getX(), r.getY(), r.getWidth(), r.getHeight());
+        if( pen != null )
+            rv.grow((int) ( pen.getWidth() / 2 ), (int) ( pen.getWidth() / 2 ));
+        return rv;
+    }
+
     @Override
     public void move(int sx, int sy)
     {
         RectangularShape rect = (RectangularShape)shape;
         rect.setFrame(rect.getX() + sx, rect.getY() + sy, rect.getWidth(), rect.getHeight());
+        invalidateBounds();
     }
 
     public void resize(int sx, int sy)
     {
         RectangularShape rect = (RectangularShape)shape;
         rect.setFrame(rect.getX(), rect.getY(), rect.getWidth() + sx, rect.getHeight() + sy);
+        invalidateBounds();
     }
 
     @Override
@@ -62,10 +62,35 @@ public class Brush
         final int prime = 31;
         int result = 1;
         result = prime * result + Float.floatToIntBits(angle);
-        result = prime * result + ( ( paint == null ) ? 0 : paint.hashCode() );
+        if( paint instanceof GradientPaint )
+        {
+            // GradientPaint does not override hashCode, use the fields compared by gradientEquals
+            GradientPaint gp = (GradientPaint)paint;
+            result = prime * result + gp.getColor1().hashCode();
+            result = prime * result + gp.getColor2().hashCode();
+            result = prime * result + gp.getPoint1().hashCode();
+            result = prime * result + gp.getPoint2().hashCode();
+            result = prime * result + ( gp.isCyclic() ? 1 : 0 );
+        }
+        else
+            result = prime * result + ( ( paint == null ) ? 0 : paint.hashCode() );
         return result;
     }
 
+    /**
+     * Returns mutable copy of this brush.
+     */
+    @Override
+    public Brush clone()
+    {
+        Brush brush = new Brush();
+        brush.paint = paint;
+        brush.angle = angle;
+        brush.sin = sin;
+        brush.cos = cos;
+        return brush;
+    }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -96,6 +121,31 @@ public class Brush
                 && gp1.getPoint2().equals(gp2.getPoint2());
     }
 
+    private boolean immutable = false;
+
+    /**
+     * Returns <code>true</code> if the brush can not be changed, for example if it is shared by {@link StyleRegistry}.
+     * Use {@link #clone()} to get a mutable copy of such brush.
+     */
+    public boolean isImmutable()
+    {
+        return immutable;
+    }
+
+    /**
+     * Makes this brush immutable, setters throw <code>UnsupportedOperationException</code> after this call.
+     */
+    public void freeze()
+    {
+        immutable = true;
+    }
+
+    protected void checkMutable()
+    {
+        if( immutable )
+            throw new UnsupportedOperationException("Brush is immutable, use its copy: " + this);
+    }
+
     public Paint getPaint()
     {
         return paint;
@@ -116,6 +166,7 @@ public class Brush
 
     public void setPaint(Paint value)
     {
+        checkMutable();
         paint = value;
         if(paint instanceof GradientPaint)
         {
@@ -137,6 +188,7 @@ public class Brush
     
     public void setColor(Color color)
     {
+        checkMutable();
         Object oldValue = paint;
         if(paint instanceof GradientPaint)
         {
@@ -161,6 +213,7 @@ public class Brush
 
     public void setColor2(Color color)
     {
+        checkMutable();
         Object oldValue = paint;
         if(paint instanceof GradientPaint)
         {
@@ -185,6 +238,7 @@ public class Brush
     {
         if(gradient == isGradient())
             return;
+        checkMutable();
         Object oldValue = paint;
         if(gradient)
         {
@@ -218,6 +272,7 @@ public class Brush
     {
         if(!(paint instanceof GradientPaint))
             return;
+        checkMutable();
         Object oldValue = paint;
         this.angle = (float) ( angle*Math.PI/180 );
         this.sin = Math.sin(this.angle);
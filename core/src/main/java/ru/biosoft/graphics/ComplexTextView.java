@@ -6,19 +6,23 @@ import java.awt.Graphics;
 import java.awt.Point;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import javax.swing.text.html.parser.DTD;
 import javax.swing.text.html.parser.Entity;
 import javax.swing.text.html.parser.ParserDelegator;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import ru.biosoft.graphics.font.ColorFont;
+import ru.biosoft.graphics.font.TextMetrics;
 
 public class ComplexTextView extends CompositeView
 {
@@ -29,7 +33,7 @@ public class ComplexTextView extends CompositeView
     public ComplexTextView(String text, ColorFont fontNormal, Map<String, ColorFont> fontRegistry, int textAlignment, Graphics graphics,
             int maxPixelWidth)
     {
-        int stringWidth = graphics.getFontMetrics(fontNormal.getFont()).stringWidth(text);
+        int stringWidth = TextMetrics.getFontMetrics(fontNormal.getFont(), graphics).stringWidth(text);
         int maxStringlength = stringWidth <= maxPixelWidth+2 ? text.length() : Math.max(4, ( maxPixelWidth * text.length() / stringWidth - 2));
         parse(text, new Point(0, 0), LEFT | BASELINE, fontNormal, fontRegistry, textAlignment, maxStringlength, graphics);
     }
@@ -46,6 +50,14 @@ public class ComplexTextView extends CompositeView
         parse(text, pt, alignment, fontNormal, fontRegistry, textAlignment, maxStringlength, graphics);
     }
 
+    /**
+     * Restores the view from JSON, text is already split into text views written as children.
+     */
+    public ComplexTextView(JSONObject json)
+    {
+        super(json);
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     // Utility methods related with text and simple HTML processing 
     //
@@ -147,7 +159,7 @@ public class ComplexTextView extends CompositeView
                 String[] obj = split(part, '=');
                 String key = obj[0].toLowerCase();
                 String value = obj[1].toLowerCase();
-                if( value.matches("'.*'") || value.matches("\".*\"") )
+                if( isQuoted(value, '\'') || isQuoted(value, '"') )
                 {
                     value = value.substring(1, value.length() - 1);
                 }
@@ -157,17 +169,22 @@ public class ComplexTextView extends CompositeView
         return result;
     }
 
+    private static boolean isQuoted(String value, char quote)
+    {
+        return value.length() > 1 && value.charAt(0) == quote && value.charAt(value.length() - 1) == quote;
+    }
+
     protected void processTag(String tag, Map<String, ColorFont> fontRegistry, List<ColorFont> fontStack, ParseState parseState,
             Graphics graphics)
     {
         if( tag.equals(BOLD_TAG) )
         {
-            ColorFont font = getFont(fontRegistry, fontStack.get(fontStack.size() - 1), BOLD_TAG);
+            ColorFont font = resolveFont(fontRegistry, fontStack.get(fontStack.size() - 1), BOLD_TAG, parseState);
             fontStack.add(font);
         }
         else if( tag.equals(ITALIC_TAG) )
         {
-            ColorFont font = getFont(fontRegistry, fontStack.get(fontStack.size() - 1), ITALIC_TAG);
+            ColorFont font = resolveFont(fontRegistry, fontStack.get(fontStack.size() - 1), ITALIC_TAG, parseState);
             fontStack.add(font);
         }
         else if( tag.equals(BR_TAG) )
@@ -176,7 +193,7 @@ public class ComplexTextView extends CompositeView
         }
         else if( tag.startsWith(FONT_TAG) )
         {
-            ColorFont font = getFont(fontRegistry, fontStack.get(fontStack.size() - 1), tag);
+            ColorFont font = resolveFont(fontRegistry, fontStack.get(fontStack.size() - 1), tag, parseState);
             fontStack.add(font);
         }
         else if( tag.equals("/" + BOLD_TAG) || tag.equals("/" + ITALIC_TAG) || tag.startsWith("/" + FONT_TAG) )
@@ -186,7 +203,7 @@ public class ComplexTextView extends CompositeView
         }
         else if( tag.equals(SUB_TAG) )
         {
-            ColorFont font = getFont(fontRegistry, fontStack.get(fontStack.size() - 1), SUB_TAG);
+            ColorFont font = resolveFont(fontRegistry, fontStack.get(fontStack.size() - 1), SUB_TAG, parseState);
             fontStack.add(font);
             parseState.verticalOffset += font.getFont().getSize() / 2;
         }
@@ -200,7 +217,7 @@ public class ComplexTextView extends CompositeView
         }
         else if( tag.equals(SUP_TAG) )
         {
-            ColorFont font = getFont(fontRegistry, fontStack.get(fontStack.size() - 1), SUB_TAG);
+            ColorFont font = resolveFont(fontRegistry, fontStack.get(fontStack.size() - 1), SUB_TAG, parseState);
             fontStack.add(font);
             parseState.verticalOffset -= font.getFont().getSize() / 2;
         }
@@ -237,6 +254,25 @@ public class ComplexTextView extends CompositeView
 
     ////////////////////////////////////////////////////////////////////////////
 
+    /** Colors declared as constants of {@link Color} by their names */
+    private static final Map<String, Color> namedColors = new HashMap<>();
+    static
+    {
+        for( Field field : Color.class.getFields() )
+        {
+            if( Modifier.isStatic(field.getModifiers()) && field.getType() == Color.class )
+            {
+                try
+                {
+                    namedColors.put(field.getName(), (Color)field.get(null));
+                }
+                catch( IllegalAccessException e )
+                {
+                }
+            }
+        }
+    }
+
     public static ColorFont getFont(Map<String, ColorFont> fontRegistry, ColorFont previous, String tag)
     {
         int size = previous.getFont().getSize();
@@ -270,18 +306,9 @@ public class ComplexTextView extends CompositeView
             }
             if( attr.containsKey(COLOR_ATTR) )
             {
-                String colorName = attr.get(COLOR_ATTR).trim().toUpperCase();
-                try
-                {
-                    Field colorField = java.awt.Color.class.getDeclaredField(colorName);
-                    if( null != colorField )
-                    {
-                        color = (Color)colorField.get(null);
-                    }
-                }
-                catch( Throwable t )
-                {
-                }
+                Color namedColor = namedColors.get(attr.get(COLOR_ATTR).trim().toUpperCase());
+                if( namedColor != null )
+                    color = namedColor;
             }
         }
         String key = size + ":" + style + ":" + color.getRGB();
@@ -300,10 +327,32 @@ public class ComplexTextView extends CompositeView
     protected void parse(String text, Point pt, int alignment, ColorFont fontNormal, Map<String, ColorFont> fontRegistry,
             int textAlignment, int maxStringLength, Graphics graphics)
     {
-        boolean readTag = false;
-        boolean readCharacterEntity = false;
+        // subclasses may change parsing, so only plain labels are cached
+        if( getClass() != ComplexTextView.class )
+        {
+            parseText(text, new ParseState(pt, maxStringLength, alignment, textAlignment), fontNormal, fontRegistry, graphics);
+            return;
+        }
+
+        TemplateKey key = new TemplateKey(text, fontNormal, alignment, textAlignment, maxStringLength);
+        LayoutTemplate template = templates.get(key);
+        if( template != null )
+        {
+            instantiate(template, new ParseState(pt, maxStringLength, alignment, textAlignment), fontNormal, fontRegistry, graphics);
+            return;
+        }
 
         ParseState parseState = new ParseState(pt, maxStringLength, alignment, textAlignment);
+        parseState.template = new LayoutTemplate(fontNormal);
+        parseText(text, parseState, fontNormal, fontRegistry, graphics);
+        templates.put(key, parseState.template);
+    }
+
+    protected void parseText(String text, ParseState parseState, ColorFont fontNormal, Map<String, ColorFont> fontRegistry,
+            Graphics graphics)
+    {
+        boolean readTag = false;
+        boolean readCharacterEntity = false;
 
         //stack for using font
         List<ColorFont> fontStack = new ArrayList<>();
@@ -319,24 +368,25 @@ public class ComplexTextView extends CompositeView
                 {
                     processText(parseState.buffer.toString(), fontStack, parseState, graphics);
                 }
-                parseState.buffer = new StringBuffer();
+                parseState.buffer.setLength(0);
                 readCharacterEntity = true;
             }
             else if( currentSymbol == ';' && readCharacterEntity )
             {
                 String entity = parseState.buffer.toString();
                 String entityValue = convertEntity(entity);
+                parseState.buffer.setLength(0);
                 if(entityValue != null)
                 {
-                    parseState.buffer = new StringBuffer(entityValue);
+                    parseState.buffer.append(entityValue);
                 } 
                 else
                 {
-                    parseState.buffer = new StringBuffer("&"+entity+";");
+                    parseState.buffer.append('&').append(entity).append(';');
                 }
 
                 processText(parseState.buffer.toString(), fontStack, parseState, graphics);
-                parseState.buffer = new StringBuffer();
+                parseState.buffer.setLength(0);
                 readCharacterEntity = false;
             }
             else if( currentSymbol == '<' && !readTag )
@@ -345,13 +395,13 @@ public class ComplexTextView extends CompositeView
                 {
                     processText(parseState.buffer.toString(), fontStack, parseState, graphics);
                 }
-                parseState.buffer = new StringBuffer();
+                parseState.buffer.setLength(0);
                 readTag = true;
             }
             else if( currentSymbol == '>' && readTag )
             {
                 String tag = parseState.buffer.toString().toLowerCase();
-                parseState.buffer = new StringBuffer();
+                parseState.buffer.setLength(0);
                 if( tag.length() > 0 )
                 {
                     processTag(tag, fontRegistry, fontStack, parseState, graphics);
@@ -375,6 +425,8 @@ public class ComplexTextView extends CompositeView
 
     protected void changeLine(ParseState parseState)
     {
+        if( parseState.template != null )
+            parseState.template.lines++;
         add(parseState.currentLine, parseState.textAlignment | CompositeView.Y_BT, parseState.offset);
         parseState.offset.y = 0;
         parseState.offset.x = 0;
@@ -401,18 +453,13 @@ public class ComplexTextView extends CompositeView
             {
                 if( parseState.currentLineSize == 0 )
                 {
-                    ColorFont font = fontStack.get(fontStack.size() - 1);
-                    TextView textView = new TextView(part.substring(0, parseState.maxStringLength), new Point(0, 0), parseState.alignment,
-                            font, graphics);
-                    parseState.currentLine.add(textView, CompositeView.X_RL, new Point(0, parseState.verticalOffset));
+                    addText(part.substring(0, parseState.maxStringLength), fontStack.get(fontStack.size() - 1), parseState, graphics);
                     part = part.substring(parseState.maxStringLength);
                 }
             }
             else if( pos > 0 )
             {
-                ColorFont font = fontStack.get(fontStack.size() - 1);
-                TextView textView = new TextView(part.substring(0, pos), new Point(0, 0), parseState.alignment, font, graphics);
-                parseState.currentLine.add(textView, CompositeView.X_RL, new Point(0, parseState.verticalOffset));
+                addText(part.substring(0, pos), fontStack.get(fontStack.size() - 1), parseState, graphics);
                 part = part.substring(pos);
             }
             changeLine(parseState);
@@ -428,13 +475,27 @@ public class ComplexTextView extends CompositeView
 
         if( part.length() > 0 )
         {
-            ColorFont font = fontStack.get(fontStack.size() - 1);
-            TextView textView = new TextView(part, new Point(0, 0), parseState.alignment, font, graphics);
-            parseState.currentLine.add(textView, CompositeView.X_RL, new Point(0, parseState.verticalOffset));
+            addText(part, fontStack.get(fontStack.size() - 1), parseState, graphics);
             parseState.currentLineSize += part.length();
         }
     }
 
+    protected void addText(String text, ColorFont font, ParseState parseState, Graphics graphics)
+    {
+        TextView textView = new TextView(text, new Point(0, 0), parseState.alignment, font, graphics);
+        parseState.currentLine.add(textView, CompositeView.X_RL, new Point(0, parseState.verticalOffset));
+        if( parseState.template != null )
+            parseState.template.addRun(text, font, parseState.verticalOffset);
+    }
+
+    protected ColorFont resolveFont(Map<String, ColorFont> fontRegistry, ColorFont previous, String tag, ParseState parseState)
+    {
+        ColorFont font = getFont(fontRegistry, previous, tag);
+        if( parseState.template != null )
+            parseState.template.addFont(previous, tag, font);
+        return font;
+    }
+
     private static final char[] splitters = new char[] {' ', '-'};
     protected int indexOfSplitter(String string, int startPos)
     {
@@ -453,12 +514,138 @@ public class ComplexTextView extends CompositeView
         return result;
     }
 
+    ////////////////////////////////////////////////////////////////////////////
+    // Parsed label templates
+    //
+
+    /** Maximal number of cached label templates */
+    public static final int TEMPLATE_CACHE_SIZE = 1024;
 
-    @Override
-    public JSONObject toJSON() throws JSONException
+    private static final Map<TemplateKey, LayoutTemplate> templates = Collections.synchronizedMap(
+            new LinkedHashMap<TemplateKey, LayoutTemplate>(64, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<TemplateKey, LayoutTemplate> eldest)
+                {
+                    return size() > TEMPLATE_CACHE_SIZE;
+                }
+            });
+
+    /**
+     * Drops all cached label templates.
+     */
+    public static void clearTemplateCache()
     {
-        JSONObject result = super.toJSON();
-        return result;
+        templates.clear();
+    }
+
+    private static class TemplateKey
+    {
+        final String text;
+        final Font font;
+        final Color color;
+        final int alignment, textAlignment, maxStringLength;
+
+        TemplateKey(String text, ColorFont fontNormal, int alignment, int textAlignment, int maxStringLength)
+        {
+            this.text = text;
+            this.font = fontNormal.getFont();
+            this.color = fontNormal.getColor();
+            this.alignment = alignment;
+            this.textAlignment = textAlignment;
+            this.maxStringLength = maxStringLength;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return ( ( text.hashCode() * 31 + Objects.hashCode(font) ) * 31 + alignment ) * 961 + textAlignment * 31 + maxStringLength;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if( ! ( obj instanceof TemplateKey ) )
+                return false;
+            TemplateKey k = (TemplateKey)obj;
+            return alignment == k.alignment && textAlignment == k.textAlignment && maxStringLength == k.maxStringLength
+                    && text.equals(k.text) && Objects.equals(font, k.font) && Objects.equals(color, k.color);
+        }
+    }
+
+    /**
+     * Result of parsing and line breaking of the label: text runs with their fonts and lines.
+     * Fonts are stored as the sequence of font tags applied to the base font, so fonts are
+     * resolved through the font registry the same way as during parsing.
+     */
+    private static class LayoutTemplate
+    {
+        /** Resolved fonts, the base font has index 0 */
+        private final List<ColorFont> fonts = new ArrayList<>();
+        /** Index of the font each font was derived from */
+        private final List<Integer> previousFonts = new ArrayList<>();
+        private final List<String> fontTags = new ArrayList<>();
+
+        private final List<String> texts = new ArrayList<>();
+        private final List<Integer> runFonts = new ArrayList<>();
+        private final List<Integer> verticalOffsets = new ArrayList<>();
+        private final List<Integer> runLines = new ArrayList<>();
+        private int lines = 0;
+
+        LayoutTemplate(ColorFont fontNormal)
+        {
+            fonts.add(fontNormal);
+        }
+
+        void addFont(ColorFont previous, String tag, ColorFont font)
+        {
+            previousFonts.add(indexOf(previous));
+            fontTags.add(tag);
+            fonts.add(font);
+        }
+
+        void addRun(String text, ColorFont font, int verticalOffset)
+        {
+            texts.add(text);
+            runFonts.add(indexOf(font));
+            verticalOffsets.add(verticalOffset);
+            runLines.add(lines);
+        }
+
+        private int indexOf(ColorFont font)
+        {
+            for( int i = 0; i < fonts.size(); i++ )
+            {
+                if( fonts.get(i) == font )
+                    return i;
+            }
+            throw new IllegalStateException("Unknown font " + font);
+        }
+    }
+
+    /**
+     * Creates views of the label from the cached template.
+     */
+    private void instantiate(LayoutTemplate template, ParseState parseState, ColorFont fontNormal, Map<String, ColorFont> fontRegistry,
+            Graphics graphics)
+    {
+        ColorFont[] fonts = new ColorFont[template.fonts.size()];
+        fonts[0] = fontNormal;
+        for( int i = 0; i < template.fontTags.size(); i++ )
+            fonts[i + 1] = getFont(fontRegistry, fonts[template.previousFonts.get(i)], template.fontTags.get(i));
+
+        int line = 0;
+        for( int i = 0; i < template.texts.size(); i++ )
+        {
+            for( ; line < template.runLines.get(i); line++ )
+                changeLine(parseState);
+            parseState.verticalOffset = template.verticalOffsets.get(i);
+            addText(template.texts.get(i), fonts[template.runFonts.get(i)], parseState, graphics);
+        }
+        for( ; line < template.lines; line++ )
+            changeLine(parseState);
+
+        add(parseState.currentLine, parseState.textAlignment | CompositeView.Y_BT, parseState.offset);
     }
 
     protected static class ParseState
@@ -471,6 +658,7 @@ public class ComplexTextView extends CompositeView
         public int verticalOffset;
         public int alignment;
         public int textAlignment;
+        private LayoutTemplate template;
 
         public ParseState(Point pt, int maxStringLength, int alignment, int textAlignment)
         {
@@ -3,12 +3,20 @@ package ru.biosoft.graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -21,10 +29,21 @@ import org.json.JSONObject;
 public class CompositeView extends View implements Iterable<View>
 {
 
-    /**  Rectangle bound of this composite view */
-    protected Rectangle rect = new Rectangle(0, 0, 0, 0);
+    /**  Rectangle bound of this composite view, replaced as a whole when bounds are recalculated */
+    protected volatile Rectangle rect = new Rectangle(0, 0, 0, 0);
     /**  Storage for child views */
     protected Vector<View> children = new Vector<>();
+    /**  Optional spatial index of children, <code>null</code> if it is switched off */
+    protected SpatialIndex index = null;
+    private volatile boolean indexValid = false;
+    /** Children whose index entries should be updated before the next query */
+    private volatile Set<View> staleEntries = null;
+    /** <code>false</code> if bounds of some child were changed and {@link #rect} should be recalculated */
+    private volatile boolean boundsValid = true;
+    /** Incremented on every invalidation of bounds, so invalidation during the recalculation is not lost */
+    private volatile int boundsModCount = 0;
+    /** Set while all children are moved or scaled together, so their notifications are ignored */
+    private boolean updating = false;
     /**  If this bit is cleared,then coordinates are used directly from x,y coordinates of view location */
     public static final int REL = 0x08; //
     /** Arrange mode, X coordinate is get from x coordinate of view location */
@@ -81,11 +100,23 @@ public class CompositeView extends View implements Iterable<View>
     @Override
     public void scale(double sx, double sy)
     {
-        for(View v: children)
+        updating = true;
+        try
+        {
+            for(View v: children)
+            {
+                v.scale(sx, sy);
+            }
+        }
+        finally
         {
-            v.scale(sx, sy);
+            updating = false;
         }
         at.scale(sx, sy);
+        invalidateIndex();
+        resetBounds();
+        fireChildrenChanged();
+        invalidateBounds();
     }
     
     /**
@@ -97,39 +128,130 @@ public class CompositeView extends View implements Iterable<View>
     @Override
     public void move(int x, int y)
     {
-        for(View v: children)
+        updating = true;
+        try
         {
-            v.move(x, y);
+            for(View v: children)
+            {
+                v.move(x, y);
+            }
         }
-
-        rect.translate(x, y);
+        finally
+        {
+            updating = false;
+        }
+        Rectangle r = rect;
+        rect = new Rectangle(r.x + x, r.y + y, r.width, r.height);
+        if( index != null && indexValid )
+            index.translate(x, y);
+        fireChildrenChanged();
+        invalidateBounds();
     }
 
     /**
      * Synchronizes the <code>Rectangle</code> rectangle returned by {@link #getBounds()}
      * with composite view.
+     *
+     * Bounds of children are cached and changes made through view methods are propagated
+     * to the parents automatically, so only the changed subtrees are recalculated.
+     * If the shape of some view was changed directly, {@link View#updateBounds()} should be called for that view.
      */
     @Override
     public void updateBounds()
     {
-        if( children.size() == 0 )
-            rect = new Rectangle(0, 0, 0, 0);
-        else
+        Rectangle old = rect;
+        rect = computeBounds();
+        boundsValid = true;
+        invalidateIndex();
+        if( !old.equals(rect) )
+            invalidateBounds();
+    }
+
+    /**
+     * Called by the child view when its bounds are changed.
+     */
+    protected void childBoundsChanged(View child)
+    {
+        if( updating )
+            return;
+
+        fireViewChanged(child);
+
+        if( index != null && indexValid )
         {
-            rect = null;
-            for( View view : children )
-            {
-                if( view instanceof CompositeView )
-                    ( (CompositeView)view ).updateBounds();
+            if( staleEntries == null )
+                staleEntries = Collections.newSetFromMap(new IdentityHashMap<View, Boolean>());
+            staleEntries.add(child);
+        }
 
-                if( rect == null )
-                    rect = (Rectangle)view.getBounds().clone();
-                else
-                    rect.add(view.getBounds());
+        // parents are already notified if bounds are invalid
+        if( resetBounds() )
+            invalidateBounds();
+    }
+
+    /**
+     * Called when children were added to {@link #children} directly without notifications,
+     * so bounds and index are recalculated on the next query.
+     */
+    void childrenLoaded()
+    {
+        resetBounds();
+        invalidateIndex();
+    }
+
+    /**
+     * Marks bounds for recalculation.
+     *
+     * @return <code>true</code> if bounds were valid, so parents should be notified
+     */
+    private boolean resetBounds()
+    {
+        boundsModCount++;
+        if( !boundsValid )
+            return false;
+        boundsValid = false;
+        return true;
+    }
+
+    /**
+     * Recalculates {@link #rect} if bounds of some children were changed.
+     */
+    protected void validateBounds()
+    {
+        if( boundsValid )
+            return;
+        synchronized( children )
+        {
+            while( !boundsValid )
+            {
+                int modCount = boundsModCount;
+                rect = computeBounds();
+                boundsValid = true;
+                // some child was changed during the recalculation, its invalidation could be overwritten
+                if( modCount != boundsModCount )
+                    boundsValid = false;
             }
         }
     }
 
+    private Rectangle computeBounds()
+    {
+        if( children.size() == 0 )
+            return new Rectangle(0, 0, 0, 0);
+
+        Rectangle bounds = new Rectangle();
+        Rectangle result = null;
+        for( View view : children )
+        {
+            view.getBounds(bounds);
+            if( result == null )
+                result = new Rectangle(bounds);
+            else
+                result.add(bounds);
+        }
+        return result;
+    }
+
     /**
      * Returns the view at the specified index.
      *
@@ -167,12 +289,45 @@ public class CompositeView extends View implements Iterable<View>
      */
     public void insert(View v, int i) throws ArrayIndexOutOfBoundsException
     {
-        if( children.size() == 0 )
-            rect = (Rectangle)v.getBounds().clone();
-        else
-            rect.add(v.getBounds());
+        Rectangle bounds = v.getBounds();
+        addBounds(bounds);
+
+        if( index != null && indexValid )
+        {
+            if( i == children.size() )
+                index.append(v, bounds);
+            else
+            {
+                double next = index.getOrder(children.elementAt(i));
+                double prev = i > 0 ? index.getOrder(children.elementAt(i - 1)) : next - 2;
+                double order = ( prev + next ) / 2;
+                if( order > prev && order < next )
+                    index.insert(v, bounds, order);
+                else
+                    invalidateIndex();
+            }
+        }
 
         children.insertElementAt(v, i);
+        if( v.parent == null )
+            v.parent = this;
+        invalidateBounds();
+        fireViewAdded(v);
+    }
+
+    private void addBounds(Rectangle bounds)
+    {
+        if( children.size() == 0 )
+        {
+            rect = (Rectangle)bounds.clone();
+            boundsValid = true;
+        }
+        else
+        {
+            Rectangle r = new Rectangle(rect);
+            r.add(bounds);
+            rect = r;
+        }
     }
 
     /**
@@ -313,7 +468,7 @@ public class CompositeView extends View implements Iterable<View>
         {
             if( children.elementAt(i) == v )
             {
-                children.remove(i);
+                removeChild(i);
                 return true;
             }
             if( children.elementAt(i) instanceof CompositeView )
@@ -338,7 +493,7 @@ public class CompositeView extends View implements Iterable<View>
         {
             if( children.elementAt(i) == v )
             {
-                children.remove(i);
+                removeChild(i);
                 return true;
             }
         }
@@ -346,6 +501,21 @@ public class CompositeView extends View implements Iterable<View>
         return recursiveRemove(v);
     }
 
+    private void removeChild(int i)
+    {
+        View v = children.remove(i);
+        if( index != null && indexValid )
+            index.remove(v);
+        if( v.parent == this )
+            v.parent = null;
+        invalidateContentHash();
+
+        // bounds can shrink
+        if( resetBounds() )
+            invalidateBounds();
+        fireViewRemoved(v);
+    }
+
 
     /**
      * Adds the view to the children list and corrects
@@ -355,14 +525,211 @@ public class CompositeView extends View implements Iterable<View>
      */
     public void add(View v)
     {
-        if( children.size() == 0 )
-            rect = (Rectangle)v.getBounds().clone();
-        else
-            rect.add(v.getBounds());
+        Rectangle bounds = v.getBounds();
+        addBounds(bounds);
+
+        if( index != null && indexValid )
+            index.append(v, bounds);
 
         children.addElement(v);
+        if( v.parent == null )
+            v.parent = this;
+        invalidateBounds();
+        fireViewAdded(v);
     }
 
+    ////////////////////////////////////////////////////////////////////////////
+    // Structure listeners
+    //
+
+    /**
+     * Listener notified when child views are added to or removed from the composite
+     * through {@link CompositeView#add(View)}, {@link CompositeView#insert(View, int)} or {@link CompositeView#remove(View)}.
+     *
+     * Events are fired by the composite which directly contains the view,
+     * so listener should be registered on every composite of interest.
+     */
+    public static interface StructureListener
+    {
+        public void viewAdded(CompositeView parent, View view);
+
+        public void viewRemoved(CompositeView parent, View view);
+
+        /**
+         * Called when bounds of the child view were changed, for example when it was moved.
+         */
+        public default void viewChanged(CompositeView parent, View view)
+        {
+        }
+
+        /**
+         * Called once when all children of the composite were moved or scaled together.
+         * By default {@link #viewChanged(CompositeView, View)} is called for each child.
+         */
+        public default void childrenChanged(CompositeView parent)
+        {
+            for( View view : parent )
+                viewChanged(parent, view);
+        }
+    }
+
+    private List<StructureListener> structureListeners = null;
+
+    public void addStructureListener(StructureListener listener)
+    {
+        if( structureListeners == null )
+            structureListeners = new CopyOnWriteArrayList<>();
+        structureListeners.add(listener);
+    }
+
+    public void removeStructureListener(StructureListener listener)
+    {
+        if( structureListeners != null )
+            structureListeners.remove(listener);
+    }
+
+    protected void fireViewAdded(View v)
+    {
+        if( structureListeners != null )
+        {
+            for( StructureListener listener : structureListeners )
+                listener.viewAdded(this, v);
+        }
+    }
+
+    protected void fireViewRemoved(View v)
+    {
+        if( structureListeners != null )
+        {
+            for( StructureListener listener : structureListeners )
+                listener.viewRemoved(this, v);
+        }
+    }
+
+    protected void fireViewChanged(View v)
+    {
+        if( structureListeners != null )
+        {
+            for( StructureListener listener : structureListeners )
+                listener.viewChanged(this, v);
+        }
+    }
+
+    private void fireChildrenChanged()
+    {
+        if( structureListeners != null )
+        {
+            for( StructureListener listener : structureListeners )
+                listener.childrenChanged(this);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Spatial index
+    //
+
+    /**
+     * Returns <code>true</code> if children of this view are kept in the {@link SpatialIndex}.
+     */
+    public boolean isIndexed()
+    {
+        return index != null;
+    }
+
+    /**
+     * Switches spatial index of children on or off.
+     *
+     * <p>Index makes paint culling, {@link #intersects(Rectangle)} and {@link #getDeepestActive(Point)}
+     * cost O(log n + k) instead of O(n), it is worth using for composites with many children.
+     * Index is kept up to date by {@link #add(View)}, {@link #insert(View, int)}, {@link #remove(View)},
+     * {@link #move(int, int)} and {@link #scale(double, double)}. If children are changed directly,
+     * {@link #updateBounds()} should be called to synchronize the index.</p>
+     */
+    public void setIndexed(boolean indexed)
+    {
+        if( indexed == isIndexed() )
+            return;
+        indexValid = false;
+        index = indexed ? new SpatialIndex() : null;
+    }
+
+    /**
+     * Forces index rebuilding on the next query.
+     */
+    protected void invalidateIndex()
+    {
+        indexValid = false;
+    }
+
+    private void validateIndex()
+    {
+        SpatialIndex index = this.index;
+        if( index == null || ( indexValid && staleEntries == null ) )
+            return;
+        synchronized( index )
+        {
+            if( !indexValid )
+            {
+                index.load(children);
+                indexValid = true;
+                staleEntries = null;
+            }
+            else if( staleEntries != null )
+            {
+                Rectangle bounds = new Rectangle();
+                for( View v : staleEntries )
+                {
+                    if( index.contains(v) )
+                        index.update(v, v.getBounds(bounds));
+                }
+                staleEntries = null;
+            }
+        }
+    }
+
+    /**
+     * Validates bounds and spatial indices of the whole subtree, so views can be painted
+     * from several threads without recalculating them concurrently.
+     */
+    void prepareForConcurrentPaint()
+    {
+        validateBounds();
+        validateIndex();
+        for( View v : children )
+        {
+            if( v instanceof CompositeView )
+                ( (CompositeView)v ).prepareForConcurrentPaint();
+        }
+    }
+
+    /**
+     * Appends children which can intersect the specified area to the buffer in the painting order.
+     *
+     * <p>Without spatial index all children are appended. Callers should check intersection of returned views themselves.</p>
+     *
+     * @param area area of interest, <code>null</code> means all children
+     * @param result buffer to append views to
+     */
+    protected void collectChildren(Rectangle area, ViewBuffer result)
+    {
+        if( area != null && index != null )
+        {
+            validateIndex();
+            index.search(area, result);
+        }
+        else
+        {
+            for( View v : children )
+                result.add(v);
+        }
+    }
+
+    /** Per thread buffer used by paint and intersection tests. */
+    private static final ThreadLocal<ViewBuffer> buffers = ThreadLocal.withInitial(ViewBuffer::new);
+
+    /** Margin added to clip rectangle when composites and children are culled, so strokes slightly outside of view bounds are painted. */
+    protected static final int PAINT_MARGIN = 4;
+
     /**
      * Returns rectangle bound of this composite view
      *
@@ -371,9 +738,18 @@ public class CompositeView extends View implements Iterable<View>
     @Override
     public Rectangle getBounds()
     {
+        validateBounds();
         return rect.getBounds();
     }
 
+    @Override
+    public Rectangle getBounds(Rectangle rv)
+    {
+        validateBounds();
+        rv.setBounds(rect);
+        return rv;
+    }
+
     /**
      * Tests if this composite view bound intersects the interior of a specified rectangle.
      *
@@ -385,15 +761,26 @@ public class CompositeView extends View implements Iterable<View>
     {
         if( isVisible() )
         {
+            validateBounds();
             if( this.rect.intersects(rect) )
             {
-                for(View v: children)
+                ViewBuffer buffer = buffers.get();
+                int start = buffer.size();
+                try
                 {
-                    if( v.intersects(rect) )
+                    collectChildren(rect, buffer);
+                    for( int i = start; i < buffer.size(); i++ )
                     {
-                        return true;
+                        if( buffer.get(i).intersects(rect) )
+                        {
+                            return true;
+                        }
                     }
                 }
+                finally
+                {
+                    buffer.truncate(start);
+                }
             }
         }
         return false;
@@ -420,98 +807,104 @@ public class CompositeView extends View implements Iterable<View>
         return result;
     }
 
-    private Rectangle curRect = null;
     public final static int DELTA = 3;
 
+    /**
+     * State of one hit-test query.
+     *
+     * All data of the query is kept here instead of the view fields, so hit-tests
+     * can be run concurrently on the same tree. Context can be reused for subsequent queries
+     * to avoid allocations, but it must not be shared between threads.
+     */
+    public static class HitTestContext
+    {
+        private final Rectangle area = new Rectangle();
+        private final Rectangle bounds = new Rectangle();
+        private final Rectangle maxBounds = new Rectangle();
+        private final ViewBuffer candidates = new ViewBuffer();
+        private Object[] ignoreModels;
+        private Class<?> modelClass;
+        private boolean busy;
+    }
+
+    private static final ThreadLocal<HitTestContext> hitTestContexts = ThreadLocal.withInitial(HitTestContext::new);
+
     /**
      * Recursive tracer for {@link getDeepestActive(Point pt) }
      *
+     * Among the found views of one level the one with the highest selection priority
+     * is chosen, if priorities are equal the view with smaller area wins,
+     * on full tie the topmost view is preferred.
+     *
      * @param cv current composite view
-     * @param ignoreModels ignore views whose modes are listed at ignoreModelsArray.
-     * @param modelClass if this parameter is specified the view model should be
-     * assignable to the specified class.
+     * @param ctx query state
+     * @param maxView currently found view
      */
-    private View traceFor(CompositeView cv, Object[] ignoreModels, Class<?> modelClass, View maxView)
+    private static View traceFor(CompositeView cv, HitTestContext ctx, View maxView)
     {
-        List<View> selectedViews = new ArrayList<>();
-        for( int i = cv.size() - 1; i >= 0; i-- )
-        {
-            View v = cv.elementAt(i);
-            View curMaxView = maxView;
+        View result = null;
+        int maxPriority = 0;
+        long record = 0;
 
-            if( v.isActive() )
+        ViewBuffer candidates = ctx.candidates;
+        int start = candidates.size();
+        try
+        {
+            cv.collectChildren(ctx.area, candidates);
+            for( int i = candidates.size() - 1; i >= start; i-- )
             {
-                Rectangle bounds = v.getBounds();
-                if( v.intersects(curRect) && ( maxView == null || maxView.getBounds().contains(bounds) )
-                        && ( modelClass == null || modelClass.isInstance(v.getModel()) ) )
+                View v = candidates.get(i);
+                View curMaxView = maxView;
+
+                if( v.isActive() && v.intersects(ctx.area) && ( ctx.modelClass == null || ctx.modelClass.isInstance(v.getModel()) )
+                        && ( maxView == null || maxView.getBounds(ctx.maxBounds).contains(v.getBounds(ctx.bounds)) )
+                        && !isIgnored(v.getModel(), ctx.ignoreModels) )
                 {
-                    boolean setUp = true;
-                    if( ignoreModels != null )
-                    {
-                        for( Object ignoreModel : ignoreModels )
-                        {
-                            if( ignoreModel == v.getModel() )
-                            {
-                                setUp = false;
-                                break;
-                            }
-                        }
-                    }
+                    curMaxView = v;
+                }
 
-                    if( setUp )
+                if( v instanceof CompositeView )
+                {
+                    View childView = traceFor((CompositeView)v, ctx, curMaxView);
+                    if( childView != null )
                     {
-                        curMaxView = v;
+                        curMaxView = childView;
                     }
                 }
-            }
 
-            if( v instanceof CompositeView )
-            {
-                View childView = traceFor((CompositeView)v, ignoreModels, modelClass, curMaxView);
-                if( childView != null )
+                if( curMaxView != null && curMaxView != maxView )
                 {
-                    curMaxView = childView;
+                    int priority = curMaxView.getSelectionPriority(ctx.area);
+                    Rectangle bounds = curMaxView.getBounds(ctx.bounds);
+                    long area = (long)bounds.width * bounds.height;
+                    if( result == null || priority > maxPriority || ( priority == maxPriority && area < record ) )
+                    {
+                        result = curMaxView;
+                        maxPriority = priority;
+                        record = area;
+                    }
                 }
             }
-
-            if( curMaxView != null && curMaxView != maxView )
-            {
-                selectedViews.add(curMaxView);
-            }
         }
-
-        if( selectedViews.size() == 0 )
+        finally
         {
-            return maxView;
+            candidates.truncate(start);
         }
-        else
+
+        return result == null ? maxView : result;
+    }
+
+    private static boolean isIgnored(Object model, Object[] ignoreModels)
+    {
+        if( ignoreModels != null )
         {
-            View result = selectedViews.get(0);
-            int maxPriority = result.getSelectionPriority(curRect);
-            Rectangle bounds = result.getBounds();
-            int record = bounds.width * bounds.height;
-            for( int i = 1; i < selectedViews.size(); i++ )
+            for( Object ignoreModel : ignoreModels )
             {
-                View v = selectedViews.get(i);
-                int priority = v.getSelectionPriority(curRect);
-                bounds = v.getBounds();
-                if( priority > maxPriority )
-                {
-                    maxPriority = priority;
-                    record = bounds.width * bounds.height;
-                    result = v;
-                }
-                else if( priority == maxPriority )
-                {
-                    if( ( bounds.width * bounds.height ) < record )
-                    {
-                        record = bounds.width * bounds.height;
-                        result = v;
-                    }
-                }
+                if( ignoreModel == model )
+                    return true;
             }
-            return result;
         }
+        return false;
     }
 
 
@@ -573,12 +966,39 @@ public class CompositeView extends View implements Iterable<View>
      */
     public View getDeepestActive(Point pt, Object[] ignoreModels, Class<?> modelClass)
     {
-        curRect = new Rectangle(pt.x - DELTA, pt.y - DELTA, 2 * DELTA, 2 * DELTA);
-        View maxView = null;
-        if( isActive() )
-            maxView = this;
+        HitTestContext ctx = hitTestContexts.get();
+        // nested call from the same thread, e.g. from getSelectionPriority of some view
+        if( ctx.busy )
+            ctx = new HitTestContext();
+        return getDeepestActive(pt, ignoreModels, modelClass, ctx);
+    }
 
-        return traceFor(this, ignoreModels, modelClass, maxView);
+    /**
+     * Same as {@link #getDeepestActive(Point, Object[], Class)}, but uses the specified context
+     * to keep the query state.
+     *
+     * @param ctx hit-test context, must not be used by other threads at the same time
+     */
+    public View getDeepestActive(Point pt, Object[] ignoreModels, Class<?> modelClass, HitTestContext ctx)
+    {
+        ctx.area.setBounds(pt.x - DELTA, pt.y - DELTA, 2 * DELTA, 2 * DELTA);
+        ctx.ignoreModels = ignoreModels;
+        ctx.modelClass = modelClass;
+        ctx.busy = true;
+        try
+        {
+            View maxView = null;
+            if( isActive() )
+                maxView = this;
+
+            return traceFor(this, ctx, maxView);
+        }
+        finally
+        {
+            ctx.busy = false;
+            ctx.ignoreModels = null;
+            ctx.modelClass = null;
+        }
     }
 
 
@@ -589,6 +1009,7 @@ public class CompositeView extends View implements Iterable<View>
      */
     public Point getLocation()
     {
+        validateBounds();
         return rect.getLocation();
     }
 
@@ -603,16 +1024,27 @@ public class CompositeView extends View implements Iterable<View>
         Rectangle clip = g.getClipBounds();
         if( clip != null )
         {
-            Rectangle rect = getBounds();
-            if( !rect.intersects(clip) )
+            // composite lying on the clip border can have strokes inside of the clip
+            clip.grow(PAINT_MARGIN, PAINT_MARGIN);
+            if( !intersectsArea(getBounds(), clip) )
                 return;
         }
 
         if( isVisible() )
         {
-            for(View v: children)
+            ViewBuffer buffer = buffers.get();
+            int start = buffer.size();
+            try
             {
-                v.paint(g);
+                collectChildren(clip, buffer);
+                for( int i = start; i < buffer.size(); i++ )
+                {
+                    buffer.get(i).paint(g);
+                }
+            }
+            finally
+            {
+                buffer.truncate(start);
             }
         }
     }
@@ -642,6 +1074,15 @@ public class CompositeView extends View implements Iterable<View>
         return true;
     }
 
+    @Override
+    protected int computeContentHash()
+    {
+        int result = 31 * super.computeContentHash() + children.size();
+        for( View child : children )
+            result = 31 * result + child.contentHash();
+        return result;
+    }
+
     @Override
     public JSONObject toJSON() throws JSONException
     {
@@ -658,61 +1099,256 @@ public class CompositeView extends View implements Iterable<View>
         return result;
     }
 
+    /**
+     * Writes only children intersecting the area, subtrees are pruned by the bounds of composite views
+     * and children are looked up in the spatial index if it is on.
+     */
+    @Override
+    protected JSONObject toJSON(Rectangle area, Predicate<View> filter) throws JSONException
+    {
+        if( !intersectsArea(getBounds(new Rectangle()), area) )
+            return null;
+        if( !isStreamable() )
+            return toJSON();
+
+        JSONObject result = toHeaderJSON();
+        JSONArray childArray = new JSONArray();
+        ViewBuffer buffer = buffers.get();
+        int start = buffer.size();
+        try
+        {
+            collectChildren(area, buffer);
+            for( int i = start; i < buffer.size(); i++ )
+            {
+                View childView = buffer.get(i);
+                if( !childView.isVisible() || ( filter != null && !filter.test(childView) ) )
+                    continue;
+                JSONObject childJSON = childView.toJSON(area, filter);
+                if( childJSON != null )
+                    childArray.put(childJSON);
+            }
+        }
+        finally
+        {
+            buffer.truncate(start);
+        }
+        result.put("children", childArray);
+        return result;
+    }
+
+    /**
+     * Writes fields of this view and then children one by one,
+     * so only JSON of a single leaf view is kept in memory at once.
+     */
+    @Override
+    public void writeJSON(Writer writer) throws IOException, JSONException
+    {
+        if( !isStreamable() )
+        {
+            super.writeJSON(writer);
+            return;
+        }
+
+        String header = toHeaderJSON().toString();
+        writer.write(header, 0, header.length() - 1);
+        writer.write(",\"children\":");
+        writeChildrenJSON(writer);
+        writer.write('}');
+    }
+
+    /**
+     * Writes array of visible children one by one.
+     */
+    void writeChildrenJSON(Writer writer) throws IOException, JSONException
+    {
+        writer.write('[');
+        boolean first = true;
+        for( int i = 0; i < children.size(); i++ )
+        {
+            View childView = children.get(i);
+            if( !childView.isVisible() )
+                continue;
+            if( !first )
+                writer.write(',');
+            childView.writeJSON(writer);
+            first = false;
+        }
+        writer.write(']');
+    }
+
+    /**
+     * Returns JSON of the view without children, used by writers which write children one by one.
+     */
+    JSONObject toHeaderJSON() throws JSONException
+    {
+        return super.toJSON();
+    }
+
+    private static final Map<Class<?>, Boolean> streamableClasses = new ConcurrentHashMap<>();
+
+    /**
+     * Returns <code>true</code> if the view is fully described by {@link #toHeaderJSON()} and its children,
+     * so it can be written, read, diffed and transferred child by child. Otherwise the view is always
+     * written and created from its complete JSON. By default subclasses which add own fields to JSON
+     * are not streamable, subclasses which derive their state from the children in the JSON constructor
+     * should return <code>false</code> as well.
+     */
+    protected boolean isStreamable()
+    {
+        return isStreamable(getClass());
+    }
+
+    static boolean isStreamable(Class<?> c)
+    {
+        Boolean result = streamableClasses.get(c);
+        if( result == null )
+        {
+            try
+            {
+                result = c.getMethod("toJSON").getDeclaringClass() == CompositeView.class;
+            }
+            catch( NoSuchMethodException e )
+            {
+                result = false;
+            }
+            streamableClasses.put(c, result);
+        }
+        return result;
+    }
+
+    /**
+     * Creates view from its own fields and the children which are already created, used by the readers
+     * which create children while they are read. View which is not {@link #isStreamable() streamable}
+     * is created from its complete JSON.
+     */
+    static View fromJSON(JSONObject fields, List<View> children) throws JSONException
+    {
+        View view = fromJSON(fields);
+        if( children == null || ! ( view instanceof CompositeView ) )
+            return view;
+
+        CompositeView cv = (CompositeView)view;
+        if( !cv.isStreamable() )
+        {
+            JSONArray childArray = new JSONArray();
+            for( View child : children )
+                childArray.put(child.toJSON());
+            fields.put("children", childArray);
+            return fromJSON(fields);
+        }
+        for( View child : children )
+            cv.add(child);
+        return cv;
+    }
+
     @Override
     public JSONObject toJSONIfChanged(View v) throws JSONException
     {
-        if( equals(v) )
+        JSONObject result = diff(v);
+        if( result == null )
             return ( new DummyView(model, isActive()) ).toJSON();
+        return result;
+    }
+
+    /**
+     * Returns JSON of the view where children equal to the children of the old view are replaced by {@link DummyView}s
+     * or <code>null</code> if the whole view is equal to the old one.
+     *
+     * Old children are found by model using the identity map, so the diff is linear in the number of children
+     * and every subtree is compared once, while the diff of its children is built. Subtree with the same
+     * {@link #contentHash()} and equal own fields is considered unchanged without visiting its children.
+     */
+    private JSONObject diff(View v) throws JSONException
+    {
+        if( v == this || ( contentHash() == v.contentHash() && shallowEquals(this, v) ) )
+            return null;
         if( ! ( v instanceof CompositeView ) )
             return toJSON();
-        JSONObject result = super.toJSON();
         CompositeView cv = (CompositeView)v;
-        int start = 0, length = cv.children.size();
-        if(length == 0)
-            return toJSON();
+        if( cv.children.isEmpty() )
+            return equals(v) ? null : toJSON();
+
+        Map<Object, ArrayDeque<View>> oldViews = new IdentityHashMap<>();
+        for( View oldChildView : cv.children )
+        {
+            Object oldModel = oldChildView.getModel();
+            if( oldModel != null && oldChildView.isVisible() )
+                oldViews.computeIfAbsent(oldModel, m -> new ArrayDeque<>(1)).add(oldChildView);
+        }
+
+        boolean unchanged = children.size() == cv.children.size() && equalsIgnoringChildren(cv);
         JSONArray childArray = new JSONArray();
         View[] childrenArray = children.toArray(new View[children.size()]);
-        for( View childView : childrenArray )
+        for( int i = 0; i < childrenArray.length; i++ )
         {
-            if(!childView.isVisible())
+            View childView = childrenArray[i];
+            View sameIndexView = i < cv.children.size() ? cv.children.get(i) : null;
+            if( !childView.isVisible() )
+            {
+                unchanged = unchanged && childView.equals(sameIndexView);
                 continue;
+            }
             Object newModel = childView.getModel();
-            if( newModel == null )
+            ArrayDeque<View> candidates = newModel == null ? null : oldViews.get(newModel);
+            View oldChildView = candidates == null ? null : candidates.poll();
+            if( oldChildView == null )
             {
                 childArray.put(childView.toJSON());
+                unchanged = unchanged && childView.equals(sameIndexView);
+                continue;
             }
+
+            JSONObject childJSON;
+            if( childView.contentHash() == oldChildView.contentHash() && shallowEquals(childView, oldChildView) )
+                childJSON = null;
+            else if( childView instanceof CompositeView )
+                childJSON = ( (CompositeView)childView ).diff(oldChildView);
             else
+                childJSON = childView.toJSON();
+
+            if( childJSON == null )
             {
-                boolean found = false;
-                int i = start;
-                do
-                {
-                    View oldChildView = cv.children.get(i);
-                    if(oldChildView.isVisible())
-                    {
-                        Object oldModel = oldChildView.getModel();
-                        if( oldModel != null && newModel == oldModel )
-                        {
-                            childArray.put(childView.toJSONIfChanged(oldChildView));
-                            start = ( i + 1 ) % length;
-                            found = true;
-                            break;
-                        }
-                    }
-                    i = ( i + 1 ) % length;
-                }
-                while( i != start );
-                if( !found )
-                {
-                    childArray.put(childView.toJSON());
-                }
+                childArray.put( ( new DummyView(newModel, childView.isActive()) ).toJSON());
+                unchanged = unchanged && oldChildView == sameIndexView;
+            }
+            else
+            {
+                childArray.put(childJSON);
+                unchanged = false;
             }
         }
-        result.put("children", childArray);
+        if( unchanged )
+            return null;
 
+        JSONObject result = super.toJSON();
+        result.put("children", childArray);
         return result;
     }
 
+    /**
+     * Compares views without comparing children of composite views, used with equal content hashes
+     * which cover the children.
+     */
+    private static boolean shallowEquals(View view, View oldView)
+    {
+        if( ! ( view instanceof CompositeView ) )
+            return view.equals(oldView);
+        if( ! ( oldView instanceof CompositeView ) )
+            return false;
+        CompositeView cv = (CompositeView)view;
+        CompositeView oldCv = (CompositeView)oldView;
+        return cv.children.size() == oldCv.children.size() && cv.equalsIgnoringChildren(oldCv);
+    }
+
+    /**
+     * Compares the view with another composite view without comparing their children.
+     * Subclasses which compare own fields in {@link #equals(Object)} should override this method as well.
+     */
+    protected boolean equalsIgnoringChildren(CompositeView v)
+    {
+        return super.equals(v);
+    }
+
     @Override
     protected void initFromJSON(JSONObject from)
     {
@@ -0,0 +1,538 @@
+package ru.biosoft.graphics;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Flat replayable representation of the view tree.
+ *
+ * Every composite view of the tree is compiled into a segment: arrays of operation codes, style indices,
+ * bounds and coordinates of its children. Shapes and lines are painted directly from these arrays,
+ * so replay does not call views and skips <code>setPaint</code> and <code>setStroke</code> calls which do not change
+ * the graphics state. Views which paint themselves in a special way (text, images, composites with
+ * own <code>paint</code> or own selection of children) are stored as is and painted by their <code>paint</code> method.
+ *
+ * Painting order is the same as of {@link CompositeView#paint(Graphics2D)}.
+ * Added, removed, moved and scaled views are tracked by {@link CompositeView.StructureListener} events,
+ * only segments of the changed composites are compiled again. Changes of styles and visibility are not tracked,
+ * {@link #invalidate(View)} should be called for them.
+ */
+public class DisplayList implements CompositeView.StructureListener
+{
+    /** Fill shape with the paint */
+    protected static final int OP_FILL = 1;
+    /** Draw outline of shape with the color and stroke */
+    protected static final int OP_DRAW = 2;
+    /** Draw line with coordinates from the coordinate buffer */
+    protected static final int OP_LINE = 3;
+    /** Paint view by its own paint method */
+    protected static final int OP_VIEW = 4;
+    /** Replay segment of the child composite */
+    protected static final int OP_SEGMENT = 5;
+
+    private static final int KIND_VIEW = 0;
+    private static final int KIND_SHAPE = 1;
+    private static final int KIND_LINE = 2;
+    private static final int KIND_COMPOSITE = 3;
+
+    /** Kinds of view classes depending on the class declaring paint method */
+    private static final Map<Class<?>, Integer> kinds = new ConcurrentHashMap<>();
+
+    private final CompositeView root;
+    private final Map<CompositeView, Segment> segments = new IdentityHashMap<>();
+    private final Set<Segment> dirtySegments = new LinkedHashSet<>();
+
+    /**
+     * Creates display list for the view tree, list is compiled when it is painted first time.
+     */
+    public DisplayList(CompositeView root)
+    {
+        this.root = root;
+    }
+
+    public CompositeView getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Marks the view as changed, composite containing it will be compiled again before the next paint.
+     * It should be called when style or visibility of the view was changed.
+     */
+    public synchronized void invalidate(View view)
+    {
+        Segment segment = view instanceof CompositeView ? segments.get(view) : null;
+        if( segment != null )
+            dirtySegments.add(segment);
+        CompositeView parent = view.getParent();
+        if( parent != null )
+            invalidateSegment(parent);
+    }
+
+    /**
+     * Drops all compiled segments.
+     */
+    public synchronized void invalidate()
+    {
+        dispose();
+    }
+
+    /**
+     * Removes listeners from the views, list can be still used and will be compiled again.
+     */
+    public synchronized void dispose()
+    {
+        for( CompositeView cv : segments.keySet() )
+            cv.removeStructureListener(this);
+        segments.clear();
+        dirtySegments.clear();
+    }
+
+    /**
+     * Returns total number of operations in the compiled list.
+     */
+    public synchronized int size()
+    {
+        validate();
+        int size = 0;
+        for( Segment segment : segments.values() )
+            size += segment.compiled.size;
+        return size;
+    }
+
+    /**
+     * Paints the view tree, changed segments are compiled first.
+     */
+    public void paint(Graphics2D g)
+    {
+        Segment segment;
+        synchronized( this )
+        {
+            segment = validate();
+        }
+        if( getKind(root) != KIND_COMPOSITE )
+        {
+            root.paint(g);
+            return;
+        }
+        if( !root.isVisible() )
+            return;
+
+        Rectangle clip = g.getClipBounds();
+        if( clip != null )
+        {
+            clip.grow(CompositeView.PAINT_MARGIN, CompositeView.PAINT_MARGIN);
+            if( !View.intersectsArea(root.getBounds(), clip) )
+                return;
+        }
+        new Replay(g, clip).replay(segment);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Listener
+    //
+
+    @Override
+    public synchronized void viewAdded(CompositeView parent, View view)
+    {
+        invalidateSegment(parent);
+    }
+
+    @Override
+    public synchronized void viewRemoved(CompositeView parent, View view)
+    {
+        invalidateSegment(parent);
+        if( view instanceof CompositeView )
+            release((CompositeView)view);
+    }
+
+    @Override
+    public synchronized void viewChanged(CompositeView parent, View view)
+    {
+        // moved composite fires events for its own children, so its segment is invalidated separately
+        invalidateSegment(parent);
+    }
+
+    @Override
+    public synchronized void childrenChanged(CompositeView parent)
+    {
+        invalidateSegment(parent);
+    }
+
+    private void invalidateSegment(CompositeView cv)
+    {
+        Segment segment = segments.get(cv);
+        if( segment != null )
+            dirtySegments.add(segment);
+    }
+
+    private void release(CompositeView cv)
+    {
+        Segment segment = segments.remove(cv);
+        if( segment == null )
+            return;
+        cv.removeStructureListener(this);
+        dirtySegments.remove(segment);
+        Compiled compiled = segment.compiled;
+        for( int i = 0; i < compiled.size; i++ )
+        {
+            if( compiled.ops[i] == OP_SEGMENT )
+                release( ( (Segment)compiled.refs[i] ).composite);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Compilation
+    //
+
+    private Segment validate()
+    {
+        Segment segment = segments.get(root);
+        if( segment == null )
+            return getSegment(root);
+
+        while( !dirtySegments.isEmpty() )
+        {
+            Segment[] dirty = dirtySegments.toArray(new Segment[dirtySegments.size()]);
+            dirtySegments.clear();
+            for( Segment s : dirty )
+            {
+                if( segments.get(s.composite) == s )
+                    s.compiled = compile(s.composite);
+            }
+        }
+        return segment;
+    }
+
+    private Segment getSegment(CompositeView cv)
+    {
+        Segment segment = segments.get(cv);
+        if( segment == null )
+        {
+            segment = new Segment(cv);
+            segments.put(cv, segment);
+            cv.addStructureListener(this);
+            segment.compiled = compile(cv);
+        }
+        return segment;
+    }
+
+    private Compiled compile(CompositeView cv)
+    {
+        Compiler compiler = new Compiler(cv.size());
+        Rectangle bounds = new Rectangle();
+        for( View view : cv )
+        {
+            if( !view.isVisible() && !( view instanceof CompositeView ) )
+                continue;
+
+            view.getBounds(bounds);
+            int kind = getKind(view);
+            if( kind == KIND_SHAPE && view.getShape() == null || kind == KIND_LINE && ! ( view.getShape() instanceof Line2D ) )
+                kind = KIND_VIEW;
+            switch( kind )
+            {
+                case KIND_SHAPE:
+                {
+                    ShapeView sv = (ShapeView)view;
+                    if( sv.brush != null )
+                        compiler.add(OP_FILL, sv.shape, bounds, compiler.style(sv.getFillPaint()), -1);
+                    if( sv.pen != null && sv.pen.getWidth() > 0 )
+                        compiler.add(OP_DRAW, sv.shape, bounds, compiler.style(sv.pen.color), compiler.style(sv.pen.getStroke()));
+                    break;
+                }
+                case KIND_LINE:
+                {
+                    LineView lv = (LineView)view;
+                    if( lv.pen != null )
+                    {
+                        int op = compiler.add(OP_LINE, null, bounds, compiler.style(lv.pen.color), compiler.style(lv.pen.getStroke()));
+                        Line2D line = (Line2D)lv.shape;
+                        compiler.coords[op * 4] = (float)line.getX1();
+                        compiler.coords[op * 4 + 1] = (float)line.getY1();
+                        compiler.coords[op * 4 + 2] = (float)line.getX2();
+                        compiler.coords[op * 4 + 3] = (float)line.getY2();
+                    }
+                    break;
+                }
+                case KIND_COMPOSITE:
+                {
+                    // segment of the hidden composite is not needed, it will be compiled when the composite is invalidated
+                    if( view.isVisible() )
+                        compiler.add(OP_SEGMENT, getSegment((CompositeView)view), bounds, -1, -1);
+                    break;
+                }
+                default:
+                    compiler.add(OP_VIEW, view, bounds, -1, -1);
+            }
+        }
+        return compiler.finish();
+    }
+
+    private static int getKind(View view)
+    {
+        Class<?> c = view.getClass();
+        Integer kind = kinds.get(c);
+        if( kind == null )
+        {
+            Class<?> declaring;
+            try
+            {
+                declaring = c.getMethod("paint", Graphics2D.class).getDeclaringClass();
+            }
+            catch( NoSuchMethodException e )
+            {
+                declaring = null;
+            }
+            if( declaring == ShapeView.class )
+                kind = KIND_SHAPE;
+            else if( declaring == LineView.class )
+                kind = KIND_LINE;
+            else if( declaring == CompositeView.class && selectsChildren(c) )
+                kind = KIND_COMPOSITE;
+            else
+                kind = KIND_VIEW;
+            kinds.put(c, kind);
+        }
+        return kind;
+    }
+
+    /**
+     * Returns <code>true</code> if children of the composite are selected for painting by {@link CompositeView},
+     * composites which create their children on demand (like {@link LazyCompositeView}) are painted by themselves.
+     */
+    private static boolean selectsChildren(Class<?> c)
+    {
+        for( ; c != CompositeView.class; c = c.getSuperclass() )
+        {
+            try
+            {
+                c.getDeclaredMethod("collectChildren", Rectangle.class, ViewBuffer.class);
+                return false;
+            }
+            catch( NoSuchMethodException e )
+            {
+            }
+        }
+        return true;
+    }
+
+    /** Compiled composite view */
+    private static class Segment
+    {
+        final CompositeView composite;
+        volatile Compiled compiled;
+
+        Segment(CompositeView composite)
+        {
+            this.composite = composite;
+        }
+    }
+
+    /** Immutable compiled operations of the segment */
+    private static class Compiled
+    {
+        final int size;
+        final int[] ops;
+        /** Two style indices per operation: paint and stroke */
+        final int[] styles;
+        /** x, y, width, height per operation */
+        final int[] bounds;
+        /** x1, y1, x2, y2 per line operation */
+        final float[] coords;
+        /** Shape, view or segment per operation */
+        final Object[] refs;
+        final Object[] styleTable;
+
+        Compiled(int size, int[] ops, int[] styles, int[] bounds, float[] coords, Object[] refs, Object[] styleTable)
+        {
+            this.size = size;
+            this.ops = ops;
+            this.styles = styles;
+            this.bounds = bounds;
+            this.coords = coords;
+            this.refs = refs;
+            this.styleTable = styleTable;
+        }
+    }
+
+    /** Growable buffers used while the segment is compiled */
+    private static class Compiler
+    {
+        int size = 0;
+        int[] ops;
+        int[] styles;
+        int[] bounds;
+        float[] coords;
+        Object[] refs;
+        final Map<Object, Integer> styleIndex = new HashMap<>();
+        Object[] styleTable = new Object[4];
+
+        Compiler(int capacity)
+        {
+            capacity = Math.max(capacity, 4);
+            ops = new int[capacity];
+            styles = new int[capacity * 2];
+            bounds = new int[capacity * 4];
+            coords = new float[capacity * 4];
+            refs = new Object[capacity];
+        }
+
+        int style(Object style)
+        {
+            if( style == null )
+                return -1;
+            Integer index = styleIndex.get(style);
+            if( index == null )
+            {
+                index = styleIndex.size();
+                if( index == styleTable.length )
+                    styleTable = Arrays.copyOf(styleTable, index * 2);
+                styleTable[index] = style;
+                styleIndex.put(style, index);
+            }
+            return index;
+        }
+
+        int add(int op, Object ref, Rectangle r, int style1, int style2)
+        {
+            if( size == ops.length )
+            {
+                int capacity = size * 2;
+                ops = Arrays.copyOf(ops, capacity);
+                styles = Arrays.copyOf(styles, capacity * 2);
+                bounds = Arrays.copyOf(bounds, capacity * 4);
+                coords = Arrays.copyOf(coords, capacity * 4);
+                refs = Arrays.copyOf(refs, capacity);
+            }
+            ops[size] = op;
+            refs[size] = ref;
+            styles[size * 2] = style1;
+            styles[size * 2 + 1] = style2;
+            bounds[size * 4] = r.x;
+            bounds[size * 4 + 1] = r.y;
+            bounds[size * 4 + 2] = r.width;
+            bounds[size * 4 + 3] = r.height;
+            return size++;
+        }
+
+        Compiled finish()
+        {
+            return new Compiled(size, ops, styles, bounds, coords, refs, Arrays.copyOf(styleTable, styleIndex.size()));
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Replay
+    //
+
+    /** State of the single replay */
+    private static class Replay
+    {
+        final Graphics2D g;
+        final Rectangle clip;
+        final Line2D.Float line = new Line2D.Float();
+        /** Paint and stroke set to the graphics by this replay, <code>null</code> if unknown */
+        Object paint;
+        Object stroke;
+
+        Replay(Graphics2D g, Rectangle clip)
+        {
+            this.g = g;
+            this.clip = clip;
+        }
+
+        void replay(Segment segment)
+        {
+            Compiled c = segment.compiled;
+            int[] ops = c.ops;
+            int[] bounds = c.bounds;
+            int[] styles = c.styles;
+            for( int i = 0; i < c.size; i++ )
+            {
+                if( clip != null && !intersects(bounds, i * 4) )
+                    continue;
+                switch( ops[i] )
+                {
+                    case OP_FILL:
+                        setPaint(styles[i * 2] < 0 ? null : c.styleTable[styles[i * 2]]);
+                        g.fill((Shape)c.refs[i]);
+                        break;
+                    case OP_DRAW:
+                        setPaint(styles[i * 2] < 0 ? null : c.styleTable[styles[i * 2]]);
+                        setStroke(c.styleTable[styles[i * 2 + 1]]);
+                        draw((Shape)c.refs[i]);
+                        break;
+                    case OP_LINE:
+                        setPaint(styles[i * 2] < 0 ? null : c.styleTable[styles[i * 2]]);
+                        setStroke(c.styleTable[styles[i * 2 + 1]]);
+                        float[] coords = c.coords;
+                        line.setLine(coords[i * 4], coords[i * 4 + 1], coords[i * 4 + 2], coords[i * 4 + 3]);
+                        g.draw(line);
+                        break;
+                    case OP_SEGMENT:
+                        replay((Segment)c.refs[i]);
+                        break;
+                    default:
+                        ( (View)c.refs[i] ).paint(g);
+                        paint = null;
+                        stroke = null;
+                }
+            }
+        }
+
+        /** Views with empty bounds still can paint a line, so edges are included */
+        private boolean intersects(int[] bounds, int i)
+        {
+            int x = bounds[i];
+            int y = bounds[i + 1];
+            return x <= clip.x + clip.width && y <= clip.y + clip.height && x + bounds[i + 2] >= clip.x && y + bounds[i + 3] >= clip.y;
+        }
+
+        private void setPaint(Object value)
+        {
+            // graphics ignores null color, so the state is not changed
+            if( value == null || value == paint || value.equals(paint) )
+                return;
+            g.setPaint((Paint)value);
+            paint = value;
+        }
+
+        private void setStroke(Object value)
+        {
+            if( value == null || value == stroke || value.equals(stroke) )
+                return;
+            g.setStroke((Stroke)value);
+            stroke = value;
+        }
+
+        private void draw(Shape shape)
+        {
+            try
+            {
+                g.draw(shape);
+            }
+            catch( Throwable t )
+            {
+                g.setColor(Color.RED);
+                g.setStroke(new BasicStroke(3));
+                g.draw(shape);
+                paint = null;
+                stroke = null;
+            }
+        }
+    }
+}
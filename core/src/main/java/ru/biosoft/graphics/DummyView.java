@@ -1,5 +1,7 @@
 package ru.biosoft.graphics;
 
+import org.json.JSONObject;
+
 public class DummyView extends View
 {
     public DummyView(Object model, boolean active)
@@ -8,6 +10,12 @@ public class DummyView extends View
         setActive(active);
         setModel(model);
     }
+
+    public DummyView(JSONObject json)
+    {
+        super(null);
+        initFromJSON(json);
+    }
     
     @Override
     public void move(int x, int y) 
@@ -23,6 +23,7 @@ public class EllipseView extends ShapeView
     {
         ((Ellipse2D.Float) shape).x += sx;
         ((Ellipse2D.Float) shape).y += sy;
+        invalidateBounds();
     }
     
     @Override
@@ -50,7 +51,7 @@ public class EllipseView extends ShapeView
             int width = from.getInt("width");
             int height = from.getInt("height");
 
-            shape = new Ellipse2D.Float(x - width / 2, y - width / 2, width, height);
+            shape = new Ellipse2D.Float(x - width / 2, y - height / 2, width, height);
         }
         catch( JSONException e )
         {
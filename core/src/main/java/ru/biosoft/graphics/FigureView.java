@@ -37,6 +37,15 @@ public class FigureView extends ShapeView
         generalPath.lineTo(xpoints[0], ypoints[0]);
     }
 
+    /**
+     * Creates figure from JSON, the closing point is already included into the points.
+     */
+    public FigureView(JSONObject json)
+    {
+        super(new GeneralPath());
+        initFromJSON(json);
+    }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -83,12 +92,20 @@ public class FigureView extends ShapeView
         return true;
     }
 
+    @Override
+    protected int computeContentHash()
+    {
+        GeneralPath path = (GeneralPath)shape;
+        return 31 * super.computeContentHash() + ( path == null ? 0 : path.getWindingRule() );
+    }
+
     @Override
     public void move(int x, int y)
     {
         AffineTransform at = new AffineTransform();
         at.setToTranslation(x, y);
         ((GeneralPath)shape).transform(at);
+        invalidateBounds();
     }
     
     @Override
@@ -144,4 +161,18 @@ public class FigureView extends ShapeView
 
         return result;
     }
+
+    @Override
+    protected void initFromJSON(JSONObject from)
+    {
+        super.initFromJSON(from);
+        try
+        {
+            shape = PathView.createPath(from);
+            invalidateBounds();
+        }
+        catch( JSONException e )
+        {
+        }
+    }
 }
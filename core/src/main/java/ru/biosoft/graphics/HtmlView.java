@@ -1,14 +1,20 @@
 package ru.biosoft.graphics;
 
+import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 
 import javax.swing.JComponent;
 import javax.swing.JLabel;
@@ -19,13 +25,161 @@ import org.json.JSONObject;
 
 import ru.biosoft.graphics.font.ColorFont;
 
+/**
+ * View which renders simple HTML using Swing text views.
+ *
+ * HTML parsing is expensive, so parsed views are shared between all HtmlViews with the same text and font.
+ * Shared views are laid out and painted under the lock, so HtmlViews can be created and painted from several threads.
+ * In the rasterized mode the label is painted into an image once per scale and then the image is drawn.
+ */
 public class HtmlView extends View
 {
     /** This component is used to create view using BasicHTML routines. */
     private static final JComponent component = new JLabel();
 
+    /** Maximal number of cached parsed views */
+    public static final int LAYOUT_CACHE_SIZE = 512;
+
+    /** Parsed view with its spans, shared between HtmlViews with the same text and font. */
+    private static class HtmlLayout
+    {
+        final javax.swing.text.View view;
+        final float preferredWidth, preferredHeight;
+        final float minimumWidth, minimumHeight;
+        /** Last rendered image, guarded by the lock on the view */
+        Raster raster;
+
+        HtmlLayout(javax.swing.text.View view)
+        {
+            this.view = view;
+            preferredWidth = view.getPreferredSpan(javax.swing.text.View.X_AXIS);
+            preferredHeight = view.getPreferredSpan(javax.swing.text.View.Y_AXIS);
+            minimumWidth = view.getMinimumSpan(javax.swing.text.View.X_AXIS);
+            minimumHeight = view.getMinimumSpan(javax.swing.text.View.Y_AXIS);
+        }
+    }
+
+    /** Image of the label rendered for the specified size and scale */
+    private static class Raster
+    {
+        final BufferedImage image;
+        final int width, height;
+        final double scaleX, scaleY;
+
+        Raster(BufferedImage image, int width, int height, double scaleX, double scaleY)
+        {
+            this.image = image;
+            this.width = width;
+            this.height = height;
+            this.scaleX = scaleX;
+            this.scaleY = scaleY;
+        }
+
+        boolean isValid(int width, int height, double scaleX, double scaleY)
+        {
+            return this.width == width && this.height == height && this.scaleX == scaleX && this.scaleY == scaleY;
+        }
+    }
+
+    private static class LayoutKey
+    {
+        final String text;
+        final Font font;
+        final Color color;
+
+        LayoutKey(String text, ColorFont cf)
+        {
+            this.text = text;
+            this.font = cf.getFont();
+            this.color = cf.getColor();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return ( text.hashCode() * 31 + Objects.hashCode(font) ) * 31 + Objects.hashCode(color);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if( ! ( obj instanceof LayoutKey ) )
+                return false;
+            LayoutKey k = (LayoutKey)obj;
+            return text.equals(k.text) && Objects.equals(font, k.font) && Objects.equals(color, k.color);
+        }
+    }
+
+    private static final Map<LayoutKey, HtmlLayout> layouts = new LinkedHashMap<LayoutKey, HtmlLayout>(64, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LayoutKey, HtmlLayout> eldest)
+        {
+            return size() > LAYOUT_CACHE_SIZE;
+        }
+    };
+
+    private static HtmlLayout getLayout(String text, ColorFont cf)
+    {
+        LayoutKey key = new LayoutKey(text, cf);
+        HtmlLayout layout;
+        synchronized( layouts )
+        {
+            layout = layouts.get(key);
+        }
+        if( layout != null )
+            return layout;
+
+        synchronized( component )
+        {
+            component.setFont(cf.getFont());
+            component.setForeground(cf.getColor());
+            layout = new HtmlLayout(BasicHTML.createHTMLView(component, text));
+        }
+
+        synchronized( layouts )
+        {
+            HtmlLayout old = layouts.get(key);
+            if( old != null )
+                return old;
+            layouts.put(key, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Drops all cached parsed views.
+     */
+    public static void clearLayoutCache()
+    {
+        synchronized( layouts )
+        {
+            layouts.clear();
+        }
+    }
+
+    private static volatile boolean defaultRasterized = false;
+
+    public static boolean isDefaultRasterized()
+    {
+        return defaultRasterized;
+    }
+
+    /**
+     * Sets rasterized mode for HtmlViews created after this call.
+     */
+    public static void setDefaultRasterized(boolean rasterized)
+    {
+        defaultRasterized = rasterized;
+    }
+
+    private final HtmlLayout layout;
+
+    /** Parsed view, it is shared with other HtmlViews and should be used under the lock on itself. */
     protected javax.swing.text.View view;
 
+    protected boolean rasterized = defaultRasterized;
+
     protected String text;
 
     protected Point pt;
@@ -41,10 +195,8 @@ public class HtmlView extends View
     {
         super(null);
 
-        component.setFont(cf.getFont());
-        component.setForeground(cf.getColor());
-
-        view = BasicHTML.createHTMLView(component, text);
+        layout = getLayout(text, cf);
+        view = layout.view;
 
         this.text = text;
         this.cf = cf;
@@ -53,16 +205,26 @@ public class HtmlView extends View
         if( preferredSize == null )
         {
             preferredSize = new Dimension();
-            preferredSize.width = Math.round(view.getPreferredSpan(javax.swing.text.View.X_AXIS));
-            preferredSize.height = Math.round(view.getPreferredSpan(javax.swing.text.View.Y_AXIS));
+            preferredSize.width = Math.round(layout.preferredWidth);
+            preferredSize.height = Math.round(layout.preferredHeight);
         }
 
-        preferredSize.width = Math.round(Math.max(preferredSize.width, view.getMinimumSpan(javax.swing.text.View.X_AXIS)));
-        preferredSize.height = Math.round(Math.max(preferredSize.height, view.getMinimumSpan(javax.swing.text.View.Y_AXIS)));
-        view.setSize(preferredSize.width, preferredSize.height);
+        preferredSize.width = Math.round(Math.max(preferredSize.width, layout.minimumWidth));
+        preferredSize.height = Math.round(Math.max(preferredSize.height, layout.minimumHeight));
+        synchronized( view )
+        {
+            view.setSize(preferredSize.width, preferredSize.height);
+        }
         shape = new Rectangle(pt, preferredSize);
     }
 
+    public HtmlView(JSONObject json) throws JSONException
+    {
+        this(json.getString("text"), StyleRegistry.intern(new ColorFont(json.getJSONObject("font"))),
+                new Point(json.getInt("x"), json.getInt("y")), new Dimension(json.getInt("width"), json.getInt("height")));
+        initFromJSON(json);
+    }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -77,11 +239,21 @@ public class HtmlView extends View
             return false;
         if( ( pt == null && v.pt != null ) || ( pt != null && !pt.equals(v.pt) ) )
             return false;
-        if( !cf.getColor().equals(v.cf.getColor()) || !cf.getFont().equals(v.cf.getFont()) )
+        if( cf != v.cf && ( !cf.getColor().equals(v.cf.getColor()) || !cf.getFont().equals(v.cf.getFont()) ) )
             return false;
         return true;
     }
 
+    @Override
+    protected int computeContentHash()
+    {
+        int result = super.computeContentHash();
+        result = 31 * result + ( text == null ? 0 : text.hashCode() );
+        result = 31 * result + ( pt == null ? 0 : pt.hashCode() );
+        result = 31 * result + cf.hashCode();
+        return result;
+    }
+
     @Override
     public void paint(Graphics2D g2)
     {
@@ -89,22 +261,92 @@ public class HtmlView extends View
         {
             Shape oldClip = g2.getClip();
             g2.setClip(shape);
-            view.paint(g2, shape);
+            AffineTransform transform = g2.getTransform();
+            if( rasterized && ( transform.getType() & ~( AffineTransform.TYPE_TRANSLATION | AffineTransform.TYPE_MASK_SCALE ) ) == 0 )
+                paintRaster(g2, transform);
+            else
+            {
+                synchronized( view )
+                {
+                    view.paint(g2, shape);
+                }
+            }
             g2.setClip(oldClip);
         }
     }
 
+    /**
+     * Draws the label image rendered for the current scale, the image is rendered
+     * if the scale or the size of the view was changed.
+     */
+    protected void paintRaster(Graphics2D g2, AffineTransform transform)
+    {
+        Rectangle rect = (Rectangle)shape;
+        if( rect.width <= 0 || rect.height <= 0 )
+            return;
+        double scaleX = transform.getScaleX();
+        double scaleY = transform.getScaleY();
+        Raster raster;
+        synchronized( view )
+        {
+            raster = layout.raster;
+            if( raster == null || !raster.isValid(rect.width, rect.height, scaleX, scaleY) )
+            {
+                raster = createRaster(g2, rect.width, rect.height, scaleX, scaleY);
+                layout.raster = raster;
+            }
+        }
+        // image pixels correspond to device pixels
+        AffineTransform at = new AffineTransform(1 / scaleX, 0, 0, 1 / scaleY, rect.x, rect.y);
+        g2.drawImage(raster.image, at, null);
+    }
+
+    private Raster createRaster(Graphics2D g2, int width, int height, double scaleX, double scaleY)
+    {
+        BufferedImage image = new BufferedImage(Math.max(1, (int)Math.ceil(width * scaleX)),
+                Math.max(1, (int)Math.ceil(height * scaleY)), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try
+        {
+            g.setRenderingHints(g2.getRenderingHints());
+            g.scale(scaleX, scaleY);
+            g.setClip(0, 0, width, height);
+            view.paint(g, new Rectangle(0, 0, width, height));
+        }
+        finally
+        {
+            g.dispose();
+        }
+        return new Raster(image, width, height, scaleX, scaleY);
+    }
+
+    public boolean isRasterized()
+    {
+        return rasterized;
+    }
+
+    /**
+     * Sets the mode when the label is painted as an image rendered once per scale.
+     * This is faster when many labels are painted, but the text may look slightly different on screen.
+     */
+    public void setRasterized(boolean rasterized)
+    {
+        this.rasterized = rasterized;
+    }
+
     @Override
     public void move(int sx, int sy)
     {
         Rectangle rect = (Rectangle)shape;
         rect.setFrame(rect.getX() + sx, rect.getY() + sy, rect.getWidth(), rect.getHeight());
+        invalidateBounds();
     }
 
     public void resize(int sx, int sy)
     {
         Rectangle rect = (Rectangle)shape;
         rect.setFrame(rect.getX(), rect.getY(), rect.getWidth() + sx, rect.getHeight() + sy);
+        invalidateBounds();
     }
 
     @Override
@@ -5,6 +5,11 @@ import java.awt.Image;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.ImageObserver;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import javax.imageio.ImageIO;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -54,6 +59,15 @@ public class ImageView extends View implements ImageObserver
         this(image, x, y, 0, 0);
     }
 
+    /**
+     * Restores the view written by {@link #toJSON()}, the image is loaded from its {@link #getPath() path}.
+     */
+    public ImageView(JSONObject json)
+    {
+        super(new Rectangle());
+        initFromJSON(json);
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     // Utility methods
     //
@@ -99,6 +113,7 @@ public class ImageView extends View implements ImageObserver
 
 //        at.setToTranslation(rect.x, rect.y);
         at.setTransform(at.getScaleX(), at.getShearX(), at.getShearY(), at.getScaleY(), rect.x,  rect.y); // restore scale also
+        invalidateBounds();
     }
 
     @Override
@@ -122,4 +137,40 @@ public class ImageView extends View implements ImageObserver
         result.put("path", path);
         return result;
     }
+
+    @Override
+    protected void initFromJSON(JSONObject from)
+    {
+        super.initFromJSON(from);
+        try
+        {
+            Rectangle rect = (Rectangle)shape;
+            rect.setBounds(from.getInt("x"), from.getInt("y"), from.getInt("width"), from.getInt("height"));
+            at.setToTranslation(rect.x, rect.y);
+            path = from.optString("path", null);
+            image = loadImage(path);
+            invalidateBounds();
+        }
+        catch( JSONException e )
+        {
+        }
+    }
+
+    /**
+     * Loads image from the file or URL, returns <code>null</code> if the image can not be read.
+     */
+    protected static Image loadImage(String path)
+    {
+        if( path == null )
+            return null;
+        try
+        {
+            File file = new File(path);
+            return file.isFile() ? ImageIO.read(file) : ImageIO.read(new URL(path));
+        }
+        catch( IOException e )
+        {
+            return null;
+        }
+    }
 }
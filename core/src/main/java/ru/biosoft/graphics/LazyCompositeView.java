@@ -0,0 +1,383 @@
+package ru.biosoft.graphics;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.Spliterator;
+import java.util.Vector;
+import java.util.function.Consumer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Composite view which keeps JSON of its children and creates them on the first access.
+ *
+ * While children are not loaded the view uses bounds stored in the "bounds" field of its JSON,
+ * so painting outside of the clip, hit testing outside of the bounds or writing JSON does not load them.
+ * Any access to the children list (painting or hit testing inside of the bounds, iteration, adding or
+ * removing children) loads all children at once and the view becomes usual {@link CompositeView}.
+ *
+ * JSON with lazy subtrees is created by {@link #toLazyJSON(View)}, JSON without bounds is loaded eagerly.
+ */
+public class LazyCompositeView extends CompositeView
+{
+    public static final String BOUNDS = "bounds";
+
+    /** JSON of children, <code>null</code> if they are already loaded */
+    private volatile JSONArray childrenJSON;
+
+    public LazyCompositeView(JSONObject json)
+    {
+        children = new LazyChildren();
+        initFromJSON(json);
+    }
+
+    @Override
+    protected void initFromJSON(JSONObject from)
+    {
+        JSONArray bounds = from.optJSONArray(BOUNDS);
+        JSONArray childArray = from.optJSONArray("children");
+        if( bounds == null || childArray == null || bounds.length() != 4 )
+        {
+            super.initFromJSON(from);
+            return;
+        }
+
+        try
+        {
+            JSONObject header = new JSONObject(from, JSONObject.getNames(from));
+            header.remove("children");
+            super.initFromJSON(header);
+            rect = new Rectangle(bounds.getInt(0), bounds.getInt(1), bounds.getInt(2), bounds.getInt(3));
+            childrenJSON = childArray;
+        }
+        catch( JSONException e )
+        {
+            super.initFromJSON(from);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if children are already created.
+     */
+    public boolean isLoaded()
+    {
+        return childrenJSON == null;
+    }
+
+    /**
+     * Creates children from JSON if they are not created yet. Called under the lock of the children list.
+     *
+     * Children are materialized quietly: they already belong to the view, so no structure events are fired
+     * and the parents are not notified, only bounds and index of this view are recalculated on the next query.
+     */
+    private void load()
+    {
+        JSONArray childArray = childrenJSON;
+        if( childArray == null )
+            return;
+        childrenJSON = null;
+        LazyChildren lazyChildren = (LazyChildren)children;
+        for( int i = 0; i < childArray.length(); ++i )
+        {
+            JSONObject childObj = childArray.optJSONObject(i);
+            View child = childObj == null ? null : fromJSON(childObj);
+            if( child != null )
+            {
+                lazyChildren.append(child);
+                if( child.parent == null )
+                    child.parent = this;
+            }
+        }
+        childrenLoaded();
+    }
+
+    /**
+     * Children are not loaded if the area does not intersect the bounds, so hit testing of
+     * the parent without spatial index does not load all its lazy children.
+     */
+    @Override
+    protected void collectChildren(Rectangle area, ViewBuffer result)
+    {
+        if( area != null && !isLoaded() && !intersectsArea(getBounds(new Rectangle()), area) )
+            return;
+        super.collectChildren(area, result);
+    }
+
+    /**
+     * Children which are not loaded yet are not prepared, they are created by the painting thread under the lock of the children list.
+     */
+    @Override
+    void prepareForConcurrentPaint()
+    {
+        if( isLoaded() )
+            super.prepareForConcurrentPaint();
+    }
+
+    @Override
+    public JSONObject toJSON() throws JSONException
+    {
+        JSONArray childArray = childrenJSON;
+        JSONObject result;
+        if( childArray == null )
+            result = super.toJSON();
+        else
+        {
+            result = toHeaderJSON();
+            result.put("children", copy(childArray));
+        }
+        result.put(BOUNDS, toArray(getBounds()));
+        return result;
+    }
+
+    /**
+     * Returns deep copy of the JSON value, so stored JSON of children is not changed by the callers of {@link #toJSON()},
+     * e.g. by {@link StyleDictionary#compact(JSONObject)}.
+     */
+    private static Object copy(Object value) throws JSONException
+    {
+        if( value instanceof JSONObject )
+        {
+            JSONObject json = (JSONObject)value;
+            JSONObject result = new JSONObject();
+            Iterator<String> keys = json.keys();
+            while( keys.hasNext() )
+            {
+                String key = keys.next();
+                result.put(key, copy(json.get(key)));
+            }
+            return result;
+        }
+        if( value instanceof JSONArray )
+        {
+            JSONArray array = (JSONArray)value;
+            JSONArray result = new JSONArray();
+            for( int i = 0; i < array.length(); i++ )
+                result.put(copy(array.get(i)));
+            return result;
+        }
+        return value;
+    }
+
+    /**
+     * Writes own fields first and then children, which are copied from JSON if they are not loaded,
+     * so {@link ViewJSONReader} reads them without creating.
+     */
+    @Override
+    public void writeJSON(Writer writer) throws IOException, JSONException
+    {
+        JSONArray childArray = childrenJSON;
+        JSONObject header = toHeaderJSON();
+        header.put(BOUNDS, toArray(getBounds()));
+        String text = header.toString();
+        writer.write(text, 0, text.length() - 1);
+        writer.write(",\"children\":");
+        if( childArray == null )
+            writeChildrenJSON(writer);
+        else
+            childArray.write(writer);
+        writer.write('}');
+    }
+
+    static boolean isLazy(JSONObject json)
+    {
+        return LazyCompositeView.class.getSimpleName().equals(json.optString("class"));
+    }
+
+    /**
+     * Returns JSON of the view where every composite view is written as {@link LazyCompositeView},
+     * so children of every composite are created only when they are needed after loading.
+     * Subclasses of {@link CompositeView} which write own fields are written as is.
+     */
+    public static JSONObject toLazyJSON(View view) throws JSONException
+    {
+        if( ! ( view instanceof CompositeView ) || ! ( (CompositeView)view ).isStreamable() )
+            return view.toJSON();
+
+        CompositeView cv = (CompositeView)view;
+        JSONObject result = cv.toHeaderJSON();
+        result.put("class", LazyCompositeView.class.getSimpleName());
+        result.put(BOUNDS, toArray(cv.getBounds()));
+        JSONArray childArray = new JSONArray();
+        for( View child : cv )
+        {
+            if( child.isVisible() )
+                childArray.put(toLazyJSON(child));
+        }
+        result.put("children", childArray);
+        return result;
+    }
+
+    private static JSONArray toArray(Rectangle r)
+    {
+        return new JSONArray().put(r.x).put(r.y).put(r.width).put(r.height);
+    }
+
+    /**
+     * Children list which loads children before any access.
+     */
+    private class LazyChildren extends Vector<View>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Appends loaded child without loading.
+         */
+        private void append(View child)
+        {
+            super.addElement(child);
+        }
+
+        @Override
+        public synchronized int size()
+        {
+            load();
+            return super.size();
+        }
+
+        @Override
+        public synchronized boolean isEmpty()
+        {
+            load();
+            return super.isEmpty();
+        }
+
+        @Override
+        public synchronized View elementAt(int index)
+        {
+            load();
+            return super.elementAt(index);
+        }
+
+        @Override
+        public synchronized View get(int index)
+        {
+            load();
+            return super.get(index);
+        }
+
+        @Override
+        public synchronized View firstElement()
+        {
+            load();
+            return super.firstElement();
+        }
+
+        @Override
+        public synchronized View lastElement()
+        {
+            load();
+            return super.lastElement();
+        }
+
+        @Override
+        public synchronized int indexOf(Object o, int index)
+        {
+            load();
+            return super.indexOf(o, index);
+        }
+
+        @Override
+        public synchronized int lastIndexOf(Object o, int index)
+        {
+            load();
+            return super.lastIndexOf(o, index);
+        }
+
+        @Override
+        public synchronized Iterator<View> iterator()
+        {
+            load();
+            return super.iterator();
+        }
+
+        @Override
+        public synchronized ListIterator<View> listIterator(int index)
+        {
+            load();
+            return super.listIterator(index);
+        }
+
+        @Override
+        public synchronized Spliterator<View> spliterator()
+        {
+            load();
+            return super.spliterator();
+        }
+
+        @Override
+        public synchronized void forEach(Consumer<? super View> action)
+        {
+            load();
+            super.forEach(action);
+        }
+
+        @Override
+        public synchronized Object[] toArray()
+        {
+            load();
+            return super.toArray();
+        }
+
+        @Override
+        public synchronized <T> T[] toArray(T[] a)
+        {
+            load();
+            return super.toArray(a);
+        }
+
+        @Override
+        public synchronized void addElement(View obj)
+        {
+            load();
+            super.addElement(obj);
+        }
+
+        @Override
+        public synchronized boolean add(View e)
+        {
+            load();
+            return super.add(e);
+        }
+
+        @Override
+        public synchronized void insertElementAt(View obj, int index)
+        {
+            load();
+            super.insertElementAt(obj, index);
+        }
+
+        @Override
+        public synchronized boolean addAll(Collection<? extends View> c)
+        {
+            load();
+            return super.addAll(c);
+        }
+
+        @Override
+        public synchronized View remove(int index)
+        {
+            load();
+            return super.remove(index);
+        }
+
+        @Override
+        public synchronized boolean removeElement(Object obj)
+        {
+            load();
+            return super.removeElement(obj);
+        }
+
+        @Override
+        public synchronized void removeAllElements()
+        {
+            load();
+            super.removeAllElements();
+        }
+    }
+}
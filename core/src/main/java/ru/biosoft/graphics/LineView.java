@@ -40,6 +40,26 @@ public class LineView extends View
         return rect;
     }
 
+    @Override
+    public Rectangle getBounds(Rectangle rv)
+    {
+        if( !( shape instanceof Line2D.Float ) )
+            return super.getBounds(rv);
+
+        // float arithmetic as in Line2D.Float.getBounds2D()
+        Line2D.Float line = (Line2D.Float)shape;
+        float x = Math.min(line.x1, line.x2);
+        float y = Math.min(line.y1, line.y2);
+        float w = line.x1 < line.x2 ? line.x2 - line.x1 : line.x1 - line.x2;
+        float h = line.y1 < line.y2 ? line.y2 - line.y1 : line.y1 - line.y2;
+        setBounds(rv, x, y, w, h);
+        if( pen != null )
+        {
+            rv.grow((int)Math.ceil(pen.getWidth() / 2), (int)Math.ceil(pen.getWidth() / 2));
+        }
+        return rv;
+    }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -50,11 +70,17 @@ public class LineView extends View
         if( !super.equals(obj) )
             return false;
         LineView v = (LineView)obj;
-        if( ( pen == null && v.pen != null ) || ( pen != null && !pen.equals(v.pen) ) )
+        if( pen != v.pen && ( pen == null || !pen.equals(v.pen) ) )
             return false;
         return true;
     }
 
+    @Override
+    protected int computeContentHash()
+    {
+        return 31 * super.computeContentHash() + ( pen == null ? 0 : pen.hashCode() );
+    }
+
     @Override
     public void move(int sx, int sy)
     {
@@ -62,17 +88,22 @@ public class LineView extends View
         ( (Line2D.Float)shape ).x2 += sx;
         ( (Line2D.Float)shape ).y1 += sy;
         ( (Line2D.Float)shape ).y2 += sy;
+        invalidateBounds();
     }
 
     @Override
     public void setToScale(double sx, double sy)
     {
-        super.setToScale(sx, sy);
         if( pen != null )
         {
             float w = (float) ( pen.getWidth() * sx );
-            pen.setWidth(w);
+            // pen can be shared with other views, so it is replaced by its scaled copy
+            if( pen.isImmutable() )
+                pen = StyleRegistry.intern(pen.withWidth(w));
+            else
+                pen = pen.withWidth(w);
         }
+        super.setToScale(sx, sy);
     }
 
     @Override
@@ -110,7 +141,7 @@ public class LineView extends View
         try
         {
             if( from.has("pen") )
-                pen = new Pen(from.getJSONObject("pen"));
+                pen = StyleRegistry.intern(new Pen(from.getJSONObject("pen")));
 
             double x1 = from.getDouble("x1");
             double y1 = from.getDouble("y1");
@@ -26,12 +26,19 @@ public class PathView extends ShapeView
         super(path, pen, null);
     }
 
+    public PathView(JSONObject json)
+    {
+        super(new GeneralPath());
+        initFromJSON(json);
+    }
+
     @Override
     public void move(int sx, int sy)
     {
         AffineTransform at = new AffineTransform();
         at.translate(sx, sy);
         ( (GeneralPath)shape ).transform(at);
+        invalidateBounds();
     }
 
     @Override
@@ -76,23 +83,47 @@ public class PathView extends ShapeView
         return true;
     }
 
+    @Override
+    protected int computeContentHash()
+    {
+        GeneralPath path = (GeneralPath)shape;
+        return 31 * super.computeContentHash() + ( path == null ? 0 : path.getWindingRule() );
+    }
+
+    /** Cached bounds of the path, calculation requires iteration over all path segments */
+    private Rectangle bounds = null;
+
     /**
      * Redefine View.getBounds to exclude path with zero width or height
      */
     @Override
     public Rectangle getBounds()
     {
-        Rectangle bounds = shape.getBounds();
-        if( bounds.width == 0 || bounds.height == 0 )
+        return getBounds(new Rectangle());
+    }
+
+    @Override
+    public Rectangle getBounds(Rectangle rv)
+    {
+        Rectangle bounds = this.bounds;
+        if( bounds == null )
         {
-            Rectangle correctedBounds = new Rectangle(bounds);
+            bounds = shape.getBounds();
             if( bounds.width == 0 )
-                correctedBounds.width = 1;
+                bounds.width = 1;
             if( bounds.height == 0 )
-                correctedBounds.height = 1;
-            return correctedBounds;
+                bounds.height = 1;
+            this.bounds = bounds;
         }
-        return bounds;
+        rv.setBounds(bounds);
+        return rv;
+    }
+
+    @Override
+    protected void invalidateBounds()
+    {
+        bounds = null;
+        super.invalidateBounds();
     }
 
     /**
@@ -197,4 +228,53 @@ public class PathView extends ShapeView
         }
         return result;
     }
+
+    @Override
+    protected void initFromJSON(JSONObject from)
+    {
+        super.initFromJSON(from);
+        try
+        {
+            shape = createPath(from);
+            invalidateBounds();
+        }
+        catch( JSONException e )
+        {
+        }
+    }
+
+    /**
+     * Creates path from the points written by {@link #toJSON()}. Type of the point is the number of
+     * control points of its segment: 0 - line, 1 - quadratic curve, 2 - cubic curve.
+     */
+    static GeneralPath createPath(JSONObject json) throws JSONException
+    {
+        JSONArray xpoints = json.getJSONArray("xpoints");
+        JSONArray ypoints = json.getJSONArray("ypoints");
+        JSONArray pointtypes = json.optJSONArray("pointtypes");
+        GeneralPath path = new GeneralPath();
+        int n = xpoints.length();
+        if( n == 0 )
+            return path;
+
+        path.moveTo(xpoints.getInt(0), ypoints.getInt(0));
+        for( int i = 1; i < n; i++ )
+        {
+            int type = pointtypes == null ? 0 : pointtypes.getInt(i);
+            if( type == 1 && i + 1 < n )
+            {
+                path.quadTo(xpoints.getInt(i), ypoints.getInt(i), xpoints.getInt(i + 1), ypoints.getInt(i + 1));
+                i += 1;
+            }
+            else if( type == 2 && i + 2 < n )
+            {
+                path.curveTo(xpoints.getInt(i), ypoints.getInt(i), xpoints.getInt(i + 1), ypoints.getInt(i + 1), xpoints.getInt(i + 2),
+                        ypoints.getInt(i + 2));
+                i += 2;
+            }
+            else
+                path.lineTo(xpoints.getInt(i), ypoints.getInt(i));
+        }
+        return path;
+    }
 }
@@ -53,6 +53,16 @@ public class Pen
         return p.width == width && Objects.equals( p.stroke, stroke ) && Objects.equals( p.color, color );
     }
 
+    @Override
+    public int hashCode()
+    {
+        long bits = Double.doubleToLongBits( width );
+        return ( (int) ( bits ^ ( bits >>> 32 ) ) * 31 + Objects.hashCode( stroke ) ) * 31 + Objects.hashCode( color );
+    }
+
+    /**
+     * Returns mutable copy of this pen.
+     */
     @Override
     public Pen clone()
     {
@@ -67,6 +77,35 @@ public class Pen
                 .getDashArray(), stroke.getDashPhase());
     }
 
+    ////////////////////////////////////////////////////////////////////////////
+    // Immutability
+    //
+
+    private boolean immutable = false;
+
+    /**
+     * Returns <code>true</code> if the pen can not be changed, for example if it is shared by {@link StyleRegistry}.
+     * Use {@link #clone()} to get a mutable copy of such pen.
+     */
+    public boolean isImmutable()
+    {
+        return immutable;
+    }
+
+    /**
+     * Makes this pen immutable, setters throw <code>UnsupportedOperationException</code> after this call.
+     */
+    public void freeze()
+    {
+        immutable = true;
+    }
+
+    protected void checkMutable()
+    {
+        if( immutable )
+            throw new UnsupportedOperationException("Pen is immutable, use its copy: " + this);
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     // Properties
     //
@@ -79,6 +118,7 @@ public class Pen
 
     public void setWidth(double width)
     {
+        checkMutable();
         double oldValue = this.width;
         this.width = width;
         if( stroke == null )
@@ -108,6 +148,7 @@ public class Pen
     }
     public void setColor(Color color)
     {
+        checkMutable();
         Color oldValue = this.color;
         this.color = color;
         json = null;
@@ -121,6 +162,7 @@ public class Pen
     }
     public void setStroke(BasicStroke stroke)
     {
+        checkMutable();
         BasicStroke oldValue = this.stroke;
         this.stroke = stroke;
         this.width = stroke.getLineWidth();
@@ -2,7 +2,6 @@ package ru.biosoft.graphics;
 
 import java.awt.Point;
 import java.awt.Polygon;
-import java.util.Arrays;
 import java.util.Collection;
 
 import org.json.JSONArray;
@@ -49,6 +48,12 @@ public class PolygonView extends ShapeView
         super(polygon, pen, brush);
     }
 
+    public PolygonView(JSONObject json)
+    {
+        this(null, null, new Polygon());
+        initFromJSON(json);
+    }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -60,26 +65,48 @@ public class PolygonView extends ShapeView
         
         PolygonView v = (PolygonView)obj;
         Polygon s1 = (Polygon)shape, s2 = (Polygon)v.shape;
-        if( s1.npoints != s2.npoints || !Arrays.equals(s1.xpoints, s2.xpoints) || !Arrays.equals(s1.ypoints, s2.ypoints) )
+        if( s1.npoints != s2.npoints )
             return false;
+        // arrays of the polygon can be longer than the number of points
+        for( int i = 0; i < s1.npoints; i++ )
+        {
+            if( s1.xpoints[i] != s2.xpoints[i] || s1.ypoints[i] != s2.ypoints[i] )
+                return false;
+        }
         
         return true;
     }
 
+    @Override
+    protected int computeContentHash()
+    {
+        Polygon pol = (Polygon)shape;
+        int result = super.computeContentHash();
+        result = 31 * result + pol.npoints;
+        for( int i = 0; i < pol.npoints; i++ )
+        {
+            result = 31 * result + pol.xpoints[i];
+            result = 31 * result + pol.ypoints[i];
+        }
+        return result;
+    }
+
     public void addPoint(Point p)
     {
-        ((Polygon)shape).addPoint(p.x, p.y);
+        addPoint(p.x, p.y);
     }
 
     public void addPoint(int x, int y)
     {
         ((Polygon)shape).addPoint(x, y);
+        invalidateBounds();
     }
 
     @Override
     public void move(int x, int y)
     {
         ((Polygon)shape).translate(x, y);
+        invalidateBounds();
     }
     
     @Override
@@ -100,4 +127,24 @@ public class PolygonView extends ShapeView
 
         return result;
     }
+
+    @Override
+    protected void initFromJSON(JSONObject from)
+    {
+        super.initFromJSON(from);
+
+        try
+        {
+            JSONArray xpoints = from.getJSONArray("xpoints");
+            JSONArray ypoints = from.getJSONArray("ypoints");
+            Polygon pol = (Polygon)shape;
+            pol.reset();
+            for( int i = 0; i < xpoints.length(); i++ )
+                pol.addPoint(xpoints.getInt(i), ypoints.getInt(i));
+            invalidateBounds();
+        }
+        catch( JSONException e )
+        {
+        }
+    }
 }
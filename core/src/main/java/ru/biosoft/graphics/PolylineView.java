@@ -23,6 +23,11 @@ public class PolylineView extends PolygonView
         super(pen, null, polygon);
     }
 
+    public PolylineView(JSONObject json)
+    {
+        super(json);
+    }
+
     @Override
     public void paint( Graphics2D g )
     {
@@ -8,7 +8,12 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.text.DecimalFormat;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import ru.biosoft.graphics.font.ColorFont;
+import ru.biosoft.graphics.font.TextMetrics;
 
 /**
  * Ruler.
@@ -187,8 +192,8 @@ public class Ruler extends CompositeView
         this.tPerT = options.getTicks();
 
         // 3.
-        FontMetrics fmMajor = graphics.getFontMetrics(options.getMajorFont().getFont());
-        FontMetrics fmMinor = graphics.getFontMetrics(options.getMinorFont().getFont());
+        FontMetrics fmMajor = TextMetrics.getFontMetrics(options.getMajorFont().getFont(), graphics);
+        FontMetrics fmMinor = TextMetrics.getFontMetrics(options.getMinorFont().getFont(), graphics);
 
         // 3.1.
         Dimension decDig = options.getDecDig();
@@ -330,7 +335,7 @@ public class Ruler extends CompositeView
     protected void initSizeUsingTicksAndLabels(double step, double stepMajor, Point pFrom, Pen pTicks, ColorFont fLabel, Graphics graphics,
             int tickUB, int tickDB, int decDig, Dimension textOffset, boolean ticksShow, boolean labelsShow, boolean labelsUp)
     {
-        FontMetrics fm = graphics.getFontMetrics(fLabel.getFont());
+        FontMetrics fm = TextMetrics.getFontMetrics(fLabel.getFont(), graphics);
 
         double cur = step * ( min / step );
 
@@ -436,6 +441,86 @@ public class Ruler extends CompositeView
         anchor.move(p.x, p.y);
     }
 
+    ////////////////////////////////////////////////////////////////////////////
+    // JSON
+    //
+
+    /**
+     * Restores the ruler written by {@link #toJSON()}, labels are measured again when the ruler is painted.
+     */
+    public Ruler(JSONObject json)
+    {
+        initFromJSON(json);
+    }
+
+    @Override
+    public JSONObject toJSON() throws JSONException
+    {
+        JSONObject result = super.toJSON();
+        result.put("rulerType", type);
+        result.put("anchor", new JSONArray().put(anchor.x).put(anchor.y));
+        result.put("scale", scale);
+        result.put("min", min);
+        result.put("max", max);
+        result.put("step", step);
+        result.put("ticks", tPerT);
+        result.put("reversed", isReversed);
+        result.put("density", density);
+        result.put("bounds", new JSONArray().put(rect.x).put(rect.y).put(rect.width).put(rect.height));
+
+        JSONObject opt = new JSONObject();
+        opt.put("majorFont", options.getMajorFont().toJSON());
+        opt.put("minorFont", options.getMinorFont().toJSON());
+        opt.put("decDig", toJSON(options.getDecDig()));
+        opt.put("axisPen", options.getAxisPen().toJSON());
+        opt.put("ticksPen", options.getTicksPen().toJSON());
+        opt.put("tickSize", toJSON(options.getTickSize()));
+        opt.put("textOffset", toJSON(options.getTextOffset()));
+        result.put("options", opt);
+        return result;
+    }
+
+    @Override
+    protected void initFromJSON(JSONObject from)
+    {
+        super.initFromJSON(from);
+        try
+        {
+            type = from.getInt("rulerType");
+            JSONArray a = from.getJSONArray("anchor");
+            anchor = new Point(a.getInt(0), a.getInt(1));
+            scale = from.getDouble("scale");
+            min = from.getDouble("min");
+            max = from.getDouble("max");
+            step = from.getDouble("step");
+            tPerT = from.getInt("ticks");
+            isReversed = from.getBoolean("reversed");
+            density = from.getDouble("density");
+            JSONArray b = from.getJSONArray("bounds");
+            rect = new Rectangle(b.getInt(0), b.getInt(1), b.getInt(2), b.getInt(3));
+
+            JSONObject opt = from.getJSONObject("options");
+            options = new RulerOptions(new ColorFont(opt.getJSONObject("majorFont")), new ColorFont(opt.getJSONObject("minorFont")),
+                    toDimension(opt.getJSONArray("decDig")), new Pen(opt.getJSONObject("axisPen")), new Pen(opt.getJSONObject("ticksPen")),
+                    toDimension(opt.getJSONArray("tickSize")), toDimension(opt.getJSONArray("textOffset")));
+            options.step = (int)step;
+            options.ticks = tPerT;
+        }
+        catch( JSONException e )
+        {
+        }
+    }
+
+    private static JSONArray toJSON(Dimension d)
+    {
+        return new JSONArray().put(d.width).put(d.height);
+    }
+
+    private static Dimension toDimension(JSONArray array) throws JSONException
+    {
+        return new Dimension(array.getInt(0), array.getInt(1));
+    }
+
     /**
      * Shifts the ruler image by the specified distance.
      *
@@ -3,8 +3,11 @@ package ru.biosoft.graphics;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.GradientPaint;
 import java.awt.Paint;
+import java.awt.Rectangle;
 import java.awt.Shape;
+import java.awt.geom.RectangularShape;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -43,11 +46,13 @@ public abstract class ShapeView extends View
     public void setBrush(Brush brush)
     {
         this.brush = brush;
+        invalidateContentHash();
     }
 
     public void setPen(Pen pen)
     {
         this.pen = pen;
+        invalidateBounds();
     }
 
     @Override
@@ -58,23 +63,36 @@ public abstract class ShapeView extends View
         if( !super.equals(obj) )
             return false;
         ShapeView v = (ShapeView)obj;
-        if( ( pen == null && v.pen != null ) || ( pen != null && !pen.equals(v.pen) ) )
+        if( pen != v.pen && ( pen == null || !pen.equals(v.pen) ) )
             return false;
-        if( ( brush == null && v.brush != null ) || ( brush != null && !brush.equals(v.brush) ) )
+        if( brush != v.brush && ( brush == null || !brush.equals(v.brush) ) )
             return false;
         return true;
     }
 
     @Override
-    public void setToScale(double sx, double sy)
+    protected int computeContentHash()
     {
-        super.setToScale(sx, sy);
+        int result = super.computeContentHash();
+        result = 31 * result + ( pen == null ? 0 : pen.hashCode() );
+        result = 31 * result + ( brush == null ? 0 : brush.hashCode() );
+        return result;
+    }
 
+    @Override
+    public void setToScale(double sx, double sy)
+    {
         if( pen != null )
         {
             float w = (float) ( pen.getWidth() * sx );
-            pen.setWidth(w);
+            // pen can be shared with other views, so it is replaced by its scaled copy
+            if( pen.isImmutable() )
+                pen = StyleRegistry.intern(pen.withWidth(w));
+            else
+                pen = pen.withWidth(w);
         }
+
+        super.setToScale(sx, sy);
     }
 
     @Override
@@ -84,8 +102,7 @@ public abstract class ShapeView extends View
         {
             if( brush != null )
             {
-                Paint paint = brush.getPaint(shape.getBounds());
-                g2.setPaint(paint);
+                g2.setPaint(getFillPaint());
                 g2.fill(shape);
             }
 
@@ -107,6 +124,67 @@ public abstract class ShapeView extends View
         }
     }
 
+    /** Gradient paint resolved for the brush paint and the shape bounds */
+    private static class ResolvedPaint
+    {
+        final Paint brushPaint;
+        final int x, y, width, height;
+        final Paint paint;
+
+        ResolvedPaint(Paint brushPaint, Rectangle bounds, Paint paint)
+        {
+            this.brushPaint = brushPaint;
+            this.x = bounds.x;
+            this.y = bounds.y;
+            this.width = bounds.width;
+            this.height = bounds.height;
+            this.paint = paint;
+        }
+
+        boolean isValid(Paint brushPaint, Rectangle bounds)
+        {
+            return this.brushPaint == brushPaint && x == bounds.x && y == bounds.y && width == bounds.width && height == bounds.height;
+        }
+    }
+
+    private static final ThreadLocal<Rectangle> paintBounds = ThreadLocal.withInitial(Rectangle::new);
+
+    private volatile ResolvedPaint resolvedPaint;
+
+    /**
+     * Returns paint to fill the shape. Gradient paint depends on the shape bounds, so it is resolved once
+     * and reused while the brush and the bounds are not changed.
+     */
+    protected Paint getFillPaint()
+    {
+        Paint brushPaint = brush.getPaint();
+        if( ! ( brushPaint instanceof GradientPaint ) )
+            return brushPaint;
+
+        Rectangle bounds = getShapeBounds(paintBounds.get());
+        ResolvedPaint resolved = resolvedPaint;
+        if( resolved == null || !resolved.isValid(brushPaint, bounds) )
+        {
+            resolved = new ResolvedPaint(brushPaint, bounds, brush.getPaint(bounds));
+            resolvedPaint = resolved;
+        }
+        return resolved.paint;
+    }
+
+    /**
+     * Stores bounds of the shape (without pen) into the specified rectangle.
+     */
+    protected Rectangle getShapeBounds(Rectangle rv)
+    {
+        if( shape instanceof RectangularShape )
+        {
+            RectangularShape r = (RectangularShape)shape;
+            return setBounds(rv, r.getX(), r.getY(), r.getWidth(), r.getHeight());
+        }
+        rv.setBounds(shape.getBounds());
+        return rv;
+    }
+
     @Override
     public JSONObject toJSON() throws JSONException
     {
@@ -127,12 +205,12 @@ public abstract class ShapeView extends View
         {
             if( from.has("pen") )
             {
-                pen = new Pen(from.getJSONObject("pen"));
+                pen = StyleRegistry.intern(new Pen(from.getJSONObject("pen")));
             }
 
             if( from.has("brush") )
             {
-                brush = new Brush(from.getJSONObject("brush"));
+                brush = StyleRegistry.intern(new Brush(from.getJSONObject("brush")));
             }
         }
         catch( JSONException e )
@@ -0,0 +1,546 @@
+package ru.biosoft.graphics;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * R-tree of views used by {@link CompositeView} to find children intersecting a rectangle
+ * in O(log n + k) instead of scanning all of them.
+ *
+ * <p>Every entry keeps the bounds the view had when it was indexed and an order key,
+ * search results are returned sorted by this key, so the painting order of children is preserved.
+ * Rectangles are treated as closed, so views with empty bounds (for example horizontal lines) are still found.</p>
+ *
+ * <p>Index is bulk loaded by sort-tile-recursive packing and then maintained by quadratic split insertions.
+ * Translation of all entries costs O(1). Several threads may search the same index,
+ * modifications must not run concurrently with searches.</p>
+ */
+public class SpatialIndex
+{
+    static final int MAX_ENTRIES = 16;
+    static final int MIN_ENTRIES = 6;
+
+    private static class Node
+    {
+        int minX, minY, maxX, maxY;
+        Node parent;
+        boolean leaf;
+        int count;
+        /** {@link Entry} objects for leaf nodes, {@link Node} objects otherwise */
+        Object[] items = new Object[MAX_ENTRIES + 1];
+
+        Node(boolean leaf)
+        {
+            this.leaf = leaf;
+        }
+    }
+
+    private static class Entry
+    {
+        View view;
+        int minX, minY, maxX, maxY;
+        double order;
+        Node node;
+    }
+
+    private Node root;
+    private final Map<View, Entry> entries = new IdentityHashMap<>();
+    private double maxOrder = -1;
+
+    /** Translation applied to all stored rectangles. */
+    private int dx, dy;
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Modification
+    //
+
+    /**
+     * Replaces the index content with specified views, order keys are their positions in the list.
+     */
+    public void load(List<? extends View> views)
+    {
+        clear();
+        Entry[] leafEntries = new Entry[views.size()];
+        Rectangle bounds = new Rectangle();
+        for( int i = 0; i < leafEntries.length; i++ )
+        {
+            View view = views.get(i);
+            Entry e = createEntry(view, view.getBounds(bounds), i);
+            leafEntries[i] = e;
+            entries.put(view, e);
+        }
+        maxOrder = leafEntries.length - 1;
+        if( leafEntries.length > 0 )
+            root = pack(leafEntries);
+    }
+
+    /**
+     * Adds view to the index. If view is already indexed, its entry is replaced.
+     *
+     * @param view view to add
+     * @param bounds current bounds of the view
+     * @param order key defining the position of the view in search results
+     */
+    public void insert(View view, Rectangle bounds, double order)
+    {
+        remove(view);
+        Entry e = createEntry(view, bounds, order);
+        entries.put(view, e);
+        maxOrder = Math.max(maxOrder, order);
+        insertEntry(e);
+    }
+
+    /**
+     * Adds view to the index after all other views.
+     */
+    public void append(View view, Rectangle bounds)
+    {
+        insert(view, bounds, maxOrder + 1);
+    }
+
+    /**
+     * Removes view from the index.
+     *
+     * @return <code>true</code> if view was indexed
+     */
+    public boolean remove(View view)
+    {
+        Entry e = entries.remove(view);
+        if( e == null )
+            return false;
+        removeEntry(e);
+        return true;
+    }
+
+    /**
+     * Moves index entry of the view to the new bounds.
+     */
+    public void update(View view, Rectangle bounds)
+    {
+        Entry e = entries.get(view);
+        if( e == null )
+            return;
+        int minX = bounds.x - dx, minY = bounds.y - dy;
+        int maxX = minX + bounds.width, maxY = minY + bounds.height;
+        if( e.minX == minX && e.minY == minY && e.maxX == maxX && e.maxY == maxY )
+            return;
+        removeEntry(e);
+        e.minX = minX;
+        e.minY = minY;
+        e.maxX = maxX;
+        e.maxY = maxY;
+        insertEntry(e);
+    }
+
+    /**
+     * Translates all indexed rectangles.
+     */
+    public void translate(int x, int y)
+    {
+        dx += x;
+        dy += y;
+    }
+
+    public void clear()
+    {
+        root = null;
+        entries.clear();
+        maxOrder = -1;
+        dx = dy = 0;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Queries
+    //
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    public boolean contains(View view)
+    {
+        return entries.containsKey(view);
+    }
+
+    /**
+     * Returns order key of the view or {@link Double#NaN} if view is not indexed.
+     */
+    public double getOrder(View view)
+    {
+        Entry e = entries.get(view);
+        return e == null ? Double.NaN : e.order;
+    }
+
+    public double getMaxOrder()
+    {
+        return maxOrder;
+    }
+
+    /**
+     * Appends views whose indexed bounds intersect the specified area to the buffer.
+     * Appended views are sorted by their order keys.
+     *
+     * @return number of appended views
+     */
+    public int search(Rectangle area, ViewBuffer result)
+    {
+        if( root == null )
+            return 0;
+        int minX = area.x - dx, minY = area.y - dy;
+        int maxX = minX + area.width, maxY = minY + area.height;
+        int start = result.size();
+        search(root, minX, minY, maxX, maxY, result);
+        result.sort(start, result.size());
+        return result.size() - start;
+    }
+
+    private static void search(Node node, int minX, int minY, int maxX, int maxY, ViewBuffer result)
+    {
+        for( int i = 0; i < node.count; i++ )
+        {
+            if( node.leaf )
+            {
+                Entry e = (Entry)node.items[i];
+                if( e.minX <= maxX && minX <= e.maxX && e.minY <= maxY && minY <= e.maxY )
+                    result.add(e.view, e.order);
+            }
+            else
+            {
+                Node child = (Node)node.items[i];
+                if( child.minX <= maxX && minX <= child.maxX && child.minY <= maxY && minY <= child.maxY )
+                    search(child, minX, minY, maxX, maxY, result);
+            }
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Internal routines
+    //
+
+    private Entry createEntry(View view, Rectangle bounds, double order)
+    {
+        Entry e = new Entry();
+        e.view = view;
+        e.order = order;
+        e.minX = bounds.x - dx;
+        e.minY = bounds.y - dy;
+        e.maxX = e.minX + bounds.width;
+        e.maxY = e.minY + bounds.height;
+        return e;
+    }
+
+    private void insertEntry(Entry e)
+    {
+        if( root == null )
+            root = new Node(true);
+
+        Node node = root;
+        while( !node.leaf )
+            node = chooseSubtree(node, e.minX, e.minY, e.maxX, e.maxY);
+
+        node.items[node.count++] = e;
+        e.node = node;
+
+        Node split = node.count > MAX_ENTRIES ? split(node) : null;
+        while( node != null )
+        {
+            recalculate(node);
+            Node parent = node.parent;
+            if( split != null )
+            {
+                if( parent == null )
+                {
+                    root = new Node(false);
+                    add(root, node);
+                    add(root, split);
+                    recalculate(root);
+                    return;
+                }
+                add(parent, split);
+                split = parent.count > MAX_ENTRIES ? split(parent) : null;
+            }
+            node = parent;
+        }
+    }
+
+    private static Node chooseSubtree(Node node, int minX, int minY, int maxX, int maxY)
+    {
+        Node best = null;
+        double bestEnlargement = Double.MAX_VALUE;
+        double bestArea = Double.MAX_VALUE;
+        for( int i = 0; i < node.count; i++ )
+        {
+            Node child = (Node)node.items[i];
+            double area = area(child.minX, child.minY, child.maxX, child.maxY);
+            double enlargement = area(Math.min(child.minX, minX), Math.min(child.minY, minY), Math.max(child.maxX, maxX),
+                    Math.max(child.maxY, maxY)) - area;
+            if( enlargement < bestEnlargement || ( enlargement == bestEnlargement && area < bestArea ) )
+            {
+                best = child;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Quadratic split: moves part of overflowed node items to the new node, which is returned.
+     */
+    private static Node split(Node node)
+    {
+        Object[] items = Arrays.copyOf(node.items, node.count);
+        int n = items.length;
+
+        int seed1 = 0, seed2 = 1;
+        double worst = -Double.MAX_VALUE;
+        for( int i = 0; i < n; i++ )
+        {
+            for( int j = i + 1; j < n; j++ )
+            {
+                double waste = area(Math.min(minX(items[i]), minX(items[j])), Math.min(minY(items[i]), minY(items[j])),
+                        Math.max(maxX(items[i]), maxX(items[j])), Math.max(maxY(items[i]), maxY(items[j])))
+                        - area(items[i]) - area(items[j]);
+                if( waste > worst )
+                {
+                    worst = waste;
+                    seed1 = i;
+                    seed2 = j;
+                }
+            }
+        }
+
+        Node sibling = new Node(node.leaf);
+        sibling.parent = node.parent;
+        node.count = 0;
+        Arrays.fill(node.items, null);
+        add(node, items[seed1]);
+        add(sibling, items[seed2]);
+        recalculate(node);
+        recalculate(sibling);
+
+        boolean[] assigned = new boolean[n];
+        assigned[seed1] = assigned[seed2] = true;
+        int remaining = n - 2;
+        while( remaining > 0 )
+        {
+            if( node.count + remaining == MIN_ENTRIES || sibling.count + remaining == MIN_ENTRIES )
+            {
+                Node target = node.count + remaining == MIN_ENTRIES ? node : sibling;
+                for( int i = 0; i < n; i++ )
+                {
+                    if( !assigned[i] )
+                    {
+                        add(target, items[i]);
+                        assigned[i] = true;
+                    }
+                }
+                recalculate(target);
+                break;
+            }
+
+            int next = -1;
+            double maxDiff = -1;
+            double nextD1 = 0, nextD2 = 0;
+            for( int i = 0; i < n; i++ )
+            {
+                if( assigned[i] )
+                    continue;
+                double d1 = enlargement(node, items[i]);
+                double d2 = enlargement(sibling, items[i]);
+                if( Math.abs(d1 - d2) > maxDiff )
+                {
+                    maxDiff = Math.abs(d1 - d2);
+                    next = i;
+                    nextD1 = d1;
+                    nextD2 = d2;
+                }
+            }
+
+            Node target;
+            if( nextD1 != nextD2 )
+                target = nextD1 < nextD2 ? node : sibling;
+            else
+                target = node.count <= sibling.count ? node : sibling;
+            add(target, items[next]);
+            extend(target, items[next]);
+            assigned[next] = true;
+            remaining--;
+        }
+        return sibling;
+    }
+
+    private void removeEntry(Entry e)
+    {
+        Node node = e.node;
+        removeItem(node, e);
+        e.node = null;
+
+        List<Entry> orphans = null;
+        while( node != root )
+        {
+            Node parent = node.parent;
+            if( node.count < MIN_ENTRIES )
+            {
+                removeItem(parent, node);
+                if( orphans == null )
+                    orphans = new ArrayList<>();
+                collectEntries(node, orphans);
+            }
+            else
+                recalculate(node);
+            node = parent;
+        }
+
+        if( root.count == 0 )
+            root = null;
+        else if( !root.leaf && root.count == 1 )
+        {
+            root = (Node)root.items[0];
+            root.parent = null;
+        }
+        else
+            recalculate(root);
+
+        if( orphans != null )
+        {
+            for( Entry orphan : orphans )
+                insertEntry(orphan);
+        }
+    }
+
+    private static void collectEntries(Node node, List<Entry> result)
+    {
+        for( int i = 0; i < node.count; i++ )
+        {
+            if( node.leaf )
+                result.add((Entry)node.items[i]);
+            else
+                collectEntries((Node)node.items[i], result);
+        }
+    }
+
+    /**
+     * Builds tree from scratch using sort-tile-recursive packing.
+     */
+    private static Node pack(Object[] items)
+    {
+        boolean leaf = true;
+        while( true )
+        {
+            int nodeCount = ( items.length + MAX_ENTRIES - 1 ) / MAX_ENTRIES;
+            int slabCount = (int)Math.ceil(Math.sqrt(nodeCount));
+            int slabSize = slabCount * MAX_ENTRIES;
+
+            Arrays.sort(items, CENTER_X);
+            List<Node> nodes = new ArrayList<>(nodeCount);
+            for( int slab = 0; slab < items.length; slab += slabSize )
+            {
+                int slabEnd = Math.min(slab + slabSize, items.length);
+                Arrays.sort(items, slab, slabEnd, CENTER_Y);
+                for( int i = slab; i < slabEnd; i += MAX_ENTRIES )
+                {
+                    Node node = new Node(leaf);
+                    int end = Math.min(i + MAX_ENTRIES, slabEnd);
+                    for( int j = i; j < end; j++ )
+                        add(node, items[j]);
+                    recalculate(node);
+                    nodes.add(node);
+                }
+            }
+
+            if( nodes.size() == 1 )
+                return nodes.get(0);
+            items = nodes.toArray();
+            leaf = false;
+        }
+    }
+
+    private static final Comparator<Object> CENTER_X = (o1, o2) -> Long.compare((long)minX(o1) + maxX(o1), (long)minX(o2) + maxX(o2));
+    private static final Comparator<Object> CENTER_Y = (o1, o2) -> Long.compare((long)minY(o1) + maxY(o1), (long)minY(o2) + maxY(o2));
+
+    private static void add(Node node, Object item)
+    {
+        node.items[node.count++] = item;
+        if( item instanceof Node )
+            ( (Node)item ).parent = node;
+        else
+            ( (Entry)item ).node = node;
+    }
+
+    private static void removeItem(Node node, Object item)
+    {
+        for( int i = 0; i < node.count; i++ )
+        {
+            if( node.items[i] == item )
+            {
+                System.arraycopy(node.items, i + 1, node.items, i, node.count - i - 1);
+                node.items[--node.count] = null;
+                return;
+            }
+        }
+    }
+
+    private static void recalculate(Node node)
+    {
+        if( node.count == 0 )
+        {
+            node.minX = node.minY = node.maxX = node.maxY = 0;
+            return;
+        }
+        node.minX = node.minY = Integer.MAX_VALUE;
+        node.maxX = node.maxY = Integer.MIN_VALUE;
+        for( int i = 0; i < node.count; i++ )
+            extend(node, node.items[i]);
+    }
+
+    private static void extend(Node node, Object item)
+    {
+        node.minX = Math.min(node.minX, minX(item));
+        node.minY = Math.min(node.minY, minY(item));
+        node.maxX = Math.max(node.maxX, maxX(item));
+        node.maxY = Math.max(node.maxY, maxY(item));
+    }
+
+    private static double enlargement(Node node, Object item)
+    {
+        return area(Math.min(node.minX, minX(item)), Math.min(node.minY, minY(item)), Math.max(node.maxX, maxX(item)),
+                Math.max(node.maxY, maxY(item))) - area(node.minX, node.minY, node.maxX, node.maxY);
+    }
+
+    private static double area(Object item)
+    {
+        return area(minX(item), minY(item), maxX(item), maxY(item));
+    }
+
+    private static double area(int minX, int minY, int maxX, int maxY)
+    {
+        return ( (double)maxX - minX ) * ( (double)maxY - minY );
+    }
+
+    private static int minX(Object item)
+    {
+        return item instanceof Node ? ( (Node)item ).minX : ( (Entry)item ).minX;
+    }
+
+    private static int minY(Object item)
+    {
+        return item instanceof Node ? ( (Node)item ).minY : ( (Entry)item ).minY;
+    }
+
+    private static int maxX(Object item)
+    {
+        return item instanceof Node ? ( (Node)item ).maxX : ( (Entry)item ).maxX;
+    }
+
+    private static int maxY(Object item)
+    {
+        return item instanceof Node ? ( (Node)item ).maxY : ( (Entry)item ).maxY;
+    }
+}
@@ -0,0 +1,244 @@
+package ru.biosoft.graphics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compact JSON form of the view tree where pens, brushes and fonts are shared.
+ *
+ * In the compact form the root view has the "styles" array with JSON of all different styles used in the tree,
+ * and "pen", "brush" and "font" fields of views contain the index of the style in this array:
+ * <pre>
+ * {"class":"CompositeView", "styles":[{"color":[0,0,0,255],"width":1}, ...],
+ *  "children":[{"class":"BoxView", "pen":0, ...}, {"class":"LineView", "pen":0, ...}]}
+ * </pre>
+ * {@link View#fromJSON(JSONObject)} and {@link ViewJSONReader} accept both forms.
+ */
+public class StyleDictionary
+{
+    public static final String STYLES = "styles";
+
+    private static final String CHILDREN = "children";
+
+    private final List<JSONObject> styles = new ArrayList<>();
+    private final Map<String, Integer> indices = new HashMap<>();
+    /** Styles are usually cached by Pen, Brush and ColorFont, so the same object is checked first */
+    private final Map<JSONObject, Integer> objectIndices = new IdentityHashMap<>();
+
+    public StyleDictionary()
+    {
+    }
+
+    /**
+     * Creates dictionary from the "styles" array of the compact JSON.
+     */
+    public StyleDictionary(JSONArray array) throws JSONException
+    {
+        for( int i = 0; i < array.length(); i++ )
+            add(array.getJSONObject(i));
+    }
+
+    public static boolean isStyle(String key)
+    {
+        return "pen".equals(key) || "brush".equals(key) || "font".equals(key);
+    }
+
+    /**
+     * Returns <code>true</code> if the JSON of view is in the compact form.
+     */
+    public static boolean isCompact(JSONObject json)
+    {
+        return json.has(STYLES);
+    }
+
+    /**
+     * Converts JSON of the view tree into the compact form. Styles of the argument are replaced by indices,
+     * the returned object writes the "styles" array first, so its text can be read by {@link ViewJSONReader}.
+     */
+    public static JSONObject compact(JSONObject json) throws JSONException
+    {
+        StyleDictionary dictionary = new StyleDictionary();
+        dictionary.replaceStyles(json);
+        JSONObject result = new CompactJSONObject(json);
+        result.put(STYLES, dictionary.toJSON());
+        return result;
+    }
+
+    /**
+     * Converts compact JSON of the view tree into the usual form. The argument is not changed.
+     */
+    public static JSONObject expand(JSONObject json) throws JSONException
+    {
+        if( !isCompact(json) )
+            return json;
+        StyleDictionary dictionary = new StyleDictionary(json.getJSONArray(STYLES));
+        JSONObject result = dictionary.resolveStyles(json);
+        result.remove(STYLES);
+        return result;
+    }
+
+    /**
+     * Writes compact JSON so that the "styles" array precedes views and the text can be read by {@link ViewJSONReader}.
+     */
+    public static void write(JSONObject compact, Writer writer) throws IOException, JSONException
+    {
+        writer.write("{\"" + STYLES + "\":");
+        compact.getJSONArray(STYLES).write(writer);
+        Iterator<String> keys = compact.keys();
+        while( keys.hasNext() )
+        {
+            String key = keys.next();
+            if( STYLES.equals(key) )
+                continue;
+            writer.write(',');
+            writer.write(JSONObject.quote(key));
+            writer.write(':');
+            Object value = compact.get(key);
+            if( value instanceof JSONObject )
+                ( (JSONObject)value ).write(writer);
+            else if( value instanceof JSONArray )
+                ( (JSONArray)value ).write(writer);
+            else
+                writer.write(JSONObject.valueToString(value));
+        }
+        writer.write('}');
+    }
+
+    /**
+     * Compact JSON which is written with the "styles" array first regardless of the key order of JSONObject.
+     * Indented text is written in the usual order.
+     */
+    private static class CompactJSONObject extends JSONObject
+    {
+        CompactJSONObject(JSONObject json)
+        {
+            super(json, json.length() == 0 ? new String[0] : JSONObject.getNames(json));
+        }
+
+        @Override
+        public Writer write(Writer writer, int indentFactor, int indent) throws JSONException
+        {
+            if( indentFactor > 0 || !has(STYLES) )
+                return super.write(writer, indentFactor, indent);
+            try
+            {
+                StyleDictionary.write(this, writer);
+            }
+            catch( IOException e )
+            {
+                throw new JSONException(e);
+            }
+            return writer;
+        }
+    }
+
+    /**
+     * Returns index of the style, the style is added if there is no equal one.
+     */
+    public int add(JSONObject style)
+    {
+        Integer index = objectIndices.get(style);
+        if( index == null )
+        {
+            String key = style.toString();
+            index = indices.get(key);
+            if( index == null )
+            {
+                index = styles.size();
+                styles.add(style);
+                indices.put(key, index);
+            }
+            objectIndices.put(style, index);
+        }
+        return index;
+    }
+
+    public JSONObject get(int index)
+    {
+        return styles.get(index);
+    }
+
+    public int size()
+    {
+        return styles.size();
+    }
+
+    public JSONArray toJSON()
+    {
+        return new JSONArray(styles);
+    }
+
+    /**
+     * Replaces styles of the view and its children by their indices.
+     */
+    private void replaceStyles(JSONObject view) throws JSONException
+    {
+        Iterator<String> keys = view.keys();
+        List<String> styleKeys = null;
+        while( keys.hasNext() )
+        {
+            String key = keys.next();
+            if( isStyle(key) && view.get(key) instanceof JSONObject )
+            {
+                if( styleKeys == null )
+                    styleKeys = new ArrayList<>(3);
+                styleKeys.add(key);
+            }
+        }
+        if( styleKeys != null )
+        {
+            for( String key : styleKeys )
+                view.put(key, add(view.getJSONObject(key)));
+        }
+
+        JSONArray children = view.optJSONArray(CHILDREN);
+        if( children != null )
+        {
+            for( int i = 0; i < children.length(); i++ )
+            {
+                JSONObject child = children.optJSONObject(i);
+                if( child != null )
+                    replaceStyles(child);
+            }
+        }
+    }
+
+    /**
+     * Returns copy of the view JSON with style indices replaced by styles.
+     */
+    JSONObject resolveStyles(JSONObject view) throws JSONException
+    {
+        JSONObject result = new JSONObject();
+        Iterator<String> keys = view.keys();
+        while( keys.hasNext() )
+        {
+            String key = keys.next();
+            Object value = view.get(key);
+            if( value instanceof Number && isStyle(key) )
+                value = get( ( (Number)value ).intValue());
+            else if( value instanceof JSONArray && CHILDREN.equals(key) )
+            {
+                JSONArray children = (JSONArray)value;
+                JSONArray resolved = new JSONArray();
+                for( int i = 0; i < children.length(); i++ )
+                {
+                    Object child = children.get(i);
+                    resolved.put(child instanceof JSONObject ? resolveStyles((JSONObject)child) : child);
+                }
+                value = resolved;
+            }
+            result.put(key, value);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,155 @@
+package ru.biosoft.graphics;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import ru.biosoft.graphics.font.ColorFont;
+
+/**
+ * Registry of shared immutable styles.
+ *
+ * {@link #intern(Pen)} and similar methods return the single immutable instance equal to the given style,
+ * so views with the same style share one object and style comparison is reduced to the identity check.
+ * Styles which are not used by any view are removed by the garbage collector.
+ *
+ * Interned styles can not be changed, editors should change a copy ({@link Pen#clone()}, {@link Brush#clone()},
+ * {@link ColorFont#clone()}) and set it to the view.
+ *
+ * Views decoded from JSON use interned styles. Constructors and setters of views keep the given style objects,
+ * as existing code may change a style after it was passed to the view and expect the view to be changed too.
+ * Diagrams built in code can share styles by {@link #intern(View)} after they are built.
+ */
+public class StyleRegistry
+{
+    private static final Map<Pen, WeakReference<Pen>> pens = new WeakHashMap<>();
+    private static final Map<Brush, WeakReference<Brush>> brushes = new WeakHashMap<>();
+    private static final Map<ColorFont, WeakReference<ColorFont>> fonts = new WeakHashMap<>();
+
+    private StyleRegistry()
+    {
+    }
+
+    /**
+     * Returns shared immutable pen equal to the specified one. Mutable pen is not changed, its copy is registered.
+     */
+    public static Pen intern(Pen pen)
+    {
+        if( pen == null )
+            return null;
+        synchronized( pens )
+        {
+            Pen result = get(pens, pen);
+            if( result == null )
+            {
+                result = pen.isImmutable() ? pen : pen.clone();
+                result.freeze();
+                pens.put(result, new WeakReference<>(result));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns shared immutable brush equal to the specified one. Mutable brush is not changed, its copy is registered.
+     */
+    public static Brush intern(Brush brush)
+    {
+        if( brush == null )
+            return null;
+        synchronized( brushes )
+        {
+            Brush result = get(brushes, brush);
+            if( result == null )
+            {
+                result = brush.isImmutable() ? brush : brush.clone();
+                result.freeze();
+                brushes.put(result, new WeakReference<>(result));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns shared immutable font equal to the specified one. Mutable font is not changed, its copy is registered.
+     */
+    public static ColorFont intern(ColorFont font)
+    {
+        if( font == null )
+            return null;
+        synchronized( fonts )
+        {
+            ColorFont result = get(fonts, font);
+            if( result == null )
+            {
+                result = font.isImmutable() ? font : font.clone();
+                result.freeze();
+                fonts.put(result, new WeakReference<>(result));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Replaces pens, brushes and fonts of the view and all its descendants with the interned ones.
+     * Styles passed to the views become shared, they should not be changed after this call.
+     */
+    public static void intern(View view)
+    {
+        if( view instanceof ShapeView )
+        {
+            ShapeView shapeView = (ShapeView)view;
+            shapeView.pen = intern(shapeView.pen);
+            shapeView.brush = intern(shapeView.brush);
+        }
+        else if( view instanceof LineView )
+        {
+            LineView lineView = (LineView)view;
+            lineView.pen = intern(lineView.pen);
+        }
+        else if( view instanceof TextView )
+        {
+            TextView textView = (TextView)view;
+            textView.font = intern(textView.font);
+        }
+        else if( view instanceof ArrowView )
+        {
+            ArrowView arrowView = (ArrowView)view;
+            arrowView.pen = intern(arrowView.pen);
+        }
+
+        // children of not loaded lazy view are decoded with interned styles
+        if( view instanceof CompositeView && ! ( view instanceof LazyCompositeView && !( (LazyCompositeView)view ).isLoaded() ) )
+        {
+            for( View child : (CompositeView)view )
+                intern(child);
+        }
+    }
+
+    /**
+     * Returns number of registered styles.
+     */
+    public static int size()
+    {
+        int size;
+        synchronized( pens )
+        {
+            size = pens.size();
+        }
+        synchronized( brushes )
+        {
+            size += brushes.size();
+        }
+        synchronized( fonts )
+        {
+            size += fonts.size();
+        }
+        return size;
+    }
+
+    private static <T> T get(Map<T, WeakReference<T>> map, T key)
+    {
+        WeakReference<T> ref = map.get(key);
+        return ref == null ? null : ref.get();
+    }
+}
@@ -1,6 +1,5 @@
 package ru.biosoft.graphics;
 
-import java.awt.Canvas;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
@@ -10,10 +9,13 @@ import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.font.FontRenderContext;
 import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import ru.biosoft.graphics.font.ColorFont;
+import ru.biosoft.graphics.font.TextMetrics;
 
 public class TextView extends View
 {
@@ -30,6 +32,9 @@ public class TextView extends View
         initFromJSON(jsonObj);
     }
 
+    /**
+     * @param graphics graphics used to measure the text, if it is <code>null</code> shared {@link TextMetrics} are used
+     */
     public TextView(String text, Point pt, int alignment, ColorFont font, Graphics graphics)
     {
         super(null);
@@ -39,7 +44,7 @@ public class TextView extends View
         this.alignment = alignment;
         this.font = font;
 
-        initSize( graphics.getFontMetrics( font.getFont() ) );
+        initSize( TextMetrics.getFontMetrics( font.getFont(), graphics ) );
     }
 
     public TextView(String text, ColorFont font, Graphics graphics)
@@ -47,6 +52,16 @@ public class TextView extends View
         this(text, new Point(0, 0), LEFT | BASELINE, font, graphics);
     }
 
+    public TextView(String text, Point pt, int alignment, ColorFont font)
+    {
+        this(text, pt, alignment, font, null);
+    }
+
+    public TextView(String text, ColorFont font)
+    {
+        this(text, new Point(0, 0), LEFT | BASELINE, font, null);
+    }
+
     protected void initSize(FontMetrics fm)
     {
         rect.width = fm.stringWidth(text);
@@ -94,17 +109,71 @@ public class TextView extends View
         TextView v = (TextView)obj;
         if((text == null && v.text != null) || (text!=null && !text.equals(v.text))) return false;
         if(y != v.y || alignment != v.alignment || !rect.equals(v.rect)) return false;
-        if(!font.getColor().equals(v.font.getColor()) || !font.getFont().equals(v.font.getFont())) return false;
+        if(font != v.font && (!font.getColor().equals(v.font.getColor()) || !font.getFont().equals(v.font.getFont()))) return false;
         return true;
     }
 
+    @Override
+    protected int computeContentHash()
+    {
+        int result = super.computeContentHash();
+        result = 31 * result + ( text == null ? 0 : text.hashCode() );
+        result = 31 * result + y;
+        result = 31 * result + alignment;
+        result = 31 * result + rect.hashCode();
+        result = 31 * result + font.hashCode();
+        return result;
+    }
+
+    /** Transformed size of the text rectangle together with the rectangle it was calculated for */
+    private static class TextBounds
+    {
+        final int x, y, width, height;
+        final int transformedWidth, transformedHeight;
+
+        TextBounds(Rectangle rect, Rectangle transformedRect)
+        {
+            x = rect.x;
+            y = rect.y;
+            width = rect.width;
+            height = rect.height;
+            transformedWidth = transformedRect.width;
+            transformedHeight = transformedRect.height;
+        }
+
+        boolean isValid(Rectangle rect)
+        {
+            return x == rect.x && y == rect.y && width == rect.width && height == rect.height;
+        }
+    }
+
+    /** Published as a whole, so concurrent hit tests and paints never see a half updated size */
+    private volatile TextBounds textBounds;
+
     @Override
     public Rectangle getBounds()
     {
-        Rectangle transformedRect =  at.createTransformedShape(rect).getBounds();
-        transformedRect.x = rect.x;
-        transformedRect.y = rect.y;
-        return transformedRect;
+        return getBounds(new Rectangle());
+    }
+
+    @Override
+    public Rectangle getBounds(Rectangle rv)
+    {
+        TextBounds bounds = textBounds;
+        if( bounds == null || !bounds.isValid(rect) )
+        {
+            bounds = new TextBounds(rect, at.createTransformedShape(rect).getBounds());
+            textBounds = bounds;
+        }
+        rv.setBounds(bounds.x, bounds.y, bounds.transformedWidth, bounds.transformedHeight);
+        return rv;
+    }
+
+    @Override
+    protected void invalidateBounds()
+    {
+        textBounds = null;
+        super.invalidateBounds();
     }
 
     @Override
@@ -119,6 +188,7 @@ public class TextView extends View
         this.y += y;
         rect.y += y;
         rect.x += x;
+        invalidateBounds();
     }
 
     @Override
@@ -127,17 +197,62 @@ public class TextView extends View
         if( isVisible() )
         {
             g.setColor(font.getColor());
-            FontRenderContext frc = new FontRenderContext(at,
-                    g.getRenderingHint(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_ON, false);
-            Font scaledFont = font.getFont().deriveFont(at);
-            GlyphVector vec = scaledFont.createGlyphVector(frc, text);
-            Rectangle r = getBounds();
+            GlyphVector vec = getGlyphVector(g.getRenderingHint(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_ON);
+            Rectangle r = getBounds(new Rectangle());
             g.drawGlyphVector(vec, rect.x, (float) ( r.y + yPosRatio*r.height ));
             g.clip(g.getClipBounds());
         }
     }
 
+    /** Shaped text together with the state it was created for */
+    private static class GlyphRun
+    {
+        final String text;
+        final Font font;
+        final AffineTransform transform;
+        final boolean antialias;
+        final GlyphVector vector;
+
+        GlyphRun(String text, Font font, AffineTransform transform, boolean antialias)
+        {
+            this.text = text;
+            this.font = font;
+            this.transform = transform;
+            this.antialias = antialias;
+            FontRenderContext frc = new FontRenderContext(transform, antialias, false);
+            vector = font.deriveFont(transform).createGlyphVector(frc, text);
+        }
+
+        boolean isValid(String text, Font font, AffineTransform transform, boolean antialias)
+        {
+            return this.text == text && this.font == font && this.antialias == antialias && this.transform.equals(transform);
+        }
+    }
+
+    private volatile GlyphRun glyphRun;
+
+    /**
+     * Returns glyph vector for the current text, font and scale. The vector is created once
+     * and is reused by subsequent paints while none of them is changed.
+     */
+    protected GlyphVector getGlyphVector(boolean antialias)
+    {
+        GlyphRun run = glyphRun;
+        Font f = font.getFont();
+        if( run == null || !run.isValid(text, f, at, antialias) )
+        {
+            run = new GlyphRun(text, f, new AffineTransform(at), antialias);
+            glyphRun = run;
+        }
+        return run.vector;
+    }
 
+    @Override
+    public void setToScale(double factorX, double factorY)
+    {
+        super.setToScale(factorX, factorY);
+        glyphRun = null;
+    }
 
     @Override
     public JSONObject toJSON() throws JSONException
@@ -166,7 +281,7 @@ public class TextView extends View
         try
         {
             text      = from.getString("text");
-            font      = new ColorFont(from.getJSONObject("font").toString());
+            font      = StyleRegistry.intern(new ColorFont(from.getJSONObject("font")));
             alignment = BASELINE|LEFT;
             rect.x    = from.getInt("x");
             y         = from.getInt("y");
@@ -190,15 +305,13 @@ public class TextView extends View
         try
         {
             text = from.getString( "text" );
-            font = new ColorFont( from.getJSONObject( "font" ).toString() );
+            font = StyleRegistry.intern( new ColorFont( from.getJSONObject( "font" ) ) );
             alignment = BASELINE | LEFT;
             rect.x = from.getInt( "x" );
             y = from.getInt( "y" );
             at.scale( from.optDouble( "scaleX", 1.0 ), from.optDouble( "scaleY", 1.0 ) );
 
-            Canvas c = new Canvas();
-            FontMetrics fm = c.getFontMetrics( font.getFont() );
-            initSize( fm );
+            initSize( TextMetrics.getFontMetrics( font ) );
         }
         catch( JSONException e )
         {
@@ -0,0 +1,191 @@
+package ru.biosoft.graphics;
+
+import java.awt.Rectangle;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Splits the view into the quadtree of JSON tiles for several zoom levels.
+ *
+ * Level 0 consists of the single tile covering the whole view, every next level splits each tile into four.
+ * Every tile is {@link #getTileSize()} pixels wide, so the scale of the level <code>n</code> is
+ * <code>tileSize * 2<sup>n</sup> / extent</code>, where extent is the larger side of the view bounds.
+ * Tile contains JSON of the view limited to the tile area (see {@link View#toJSON(Rectangle, double)}),
+ * views smaller than {@link #getMinViewSize()} pixels and texts lower than {@link #getMinTextSize()} pixels
+ * at the level scale are omitted. Empty areas are not split and their tiles are not written.
+ *
+ * <pre>
+ * new TilePyramidBuilder().build(view, TilePyramidBuilder.directory(new File("tiles")));
+ * </pre>
+ */
+public class TilePyramidBuilder
+{
+    public static final int DEFAULT_TILE_SIZE = 512;
+    public static final int DEFAULT_LEVELS = 6;
+
+    /**
+     * Receives tiles created by the builder.
+     */
+    public static interface TileStore
+    {
+        /**
+         * @param level zoom level, 0 is the coarsest one
+         * @param x column of the tile at the level
+         * @param y row of the tile at the level
+         * @param tile JSON of the tile
+         */
+        public void write(int level, int x, int y, JSONObject tile) throws IOException;
+    }
+
+    /**
+     * Returns store writing tiles into files <code>level/x/y.json</code> of the directory.
+     */
+    public static TileStore directory(File root)
+    {
+        return (level, x, y, tile) -> {
+            File dir = new File(root, level + File.separator + x);
+            if( !dir.isDirectory() && !dir.mkdirs() )
+                throw new IOException("Can not create directory " + dir);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, y + ".json")),
+                    StandardCharsets.UTF_8)))
+            {
+                tile.write(writer);
+            }
+            catch( JSONException e )
+            {
+                throw new IOException(e);
+            }
+        };
+    }
+
+    private int tileSize = DEFAULT_TILE_SIZE;
+    private int levels = DEFAULT_LEVELS;
+    private int minViewSize = 2;
+    private int minTextSize = 4;
+
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    public void setTileSize(int tileSize)
+    {
+        if( tileSize <= 0 )
+            throw new IllegalArgumentException("Tile size should be positive: " + tileSize);
+        this.tileSize = tileSize;
+    }
+
+    public int getLevels()
+    {
+        return levels;
+    }
+
+    public void setLevels(int levels)
+    {
+        if( levels <= 0 || levels > 30 )
+            throw new IllegalArgumentException("Number of levels should be from 1 to 30: " + levels);
+        this.levels = levels;
+    }
+
+    public int getMinViewSize()
+    {
+        return minViewSize;
+    }
+
+    /**
+     * @param minViewSize views whose both sides are smaller than this number of pixels are omitted
+     */
+    public void setMinViewSize(int minViewSize)
+    {
+        this.minViewSize = minViewSize;
+    }
+
+    public int getMinTextSize()
+    {
+        return minTextSize;
+    }
+
+    /**
+     * @param minTextSize text views lower than this number of pixels are omitted
+     */
+    public void setMinTextSize(int minTextSize)
+    {
+        this.minTextSize = minTextSize;
+    }
+
+    /**
+     * Builds tiles of all levels and passes them to the store.
+     *
+     * @return number of written tiles
+     */
+    public int build(View view, TileStore store) throws IOException, JSONException
+    {
+        Rectangle bounds = view.getBounds();
+        int extent = Math.max(1, Math.max(bounds.width, bounds.height));
+        return build(view, store, bounds.x, bounds.y, extent, 0, 0, 0);
+    }
+
+    private int build(View view, TileStore store, int originX, int originY, int extent, int level, int x, int y)
+            throws IOException, JSONException
+    {
+        int size = (int)Math.ceil((double)extent / ( 1 << level ));
+        Rectangle area = new Rectangle(originX + x * size, originY + y * size, size, size);
+        if( !view.intersects(area) )
+            return 0;
+
+        double scale = (double)tileSize / size;
+        Rectangle margin = new Rectangle(area);
+        margin.grow(CompositeView.PAINT_MARGIN, CompositeView.PAINT_MARGIN);
+        JSONObject json = view.toJSON(margin, getFilter(scale));
+        int count = 0;
+        JSONArray children = json == null ? null : json.optJSONArray("children");
+        if( json != null && ( children == null || children.length() > 0 ) )
+        {
+            JSONObject tile = new JSONObject();
+            tile.put("level", level);
+            tile.put("x", x);
+            tile.put("y", y);
+            tile.put("scale", scale);
+            tile.put("bounds", new JSONArray().put(area.x).put(area.y).put(area.width).put(area.height));
+            tile.put("view", json);
+            store.write(level, x, y, tile);
+            count++;
+        }
+
+        if( level + 1 < levels )
+        {
+            for( int i = 0; i < 4; i++ )
+                count += build(view, store, originX, originY, extent, level + 1, x * 2 + i % 2, y * 2 + i / 2);
+        }
+        return count;
+    }
+
+    /**
+     * Returns filter of views visible at the specified scale.
+     */
+    protected Predicate<View> getFilter(double scale)
+    {
+        Rectangle bounds = new Rectangle();
+        return view -> {
+            view.getBounds(bounds);
+            if( isText(view) )
+                return bounds.height * scale >= minTextSize;
+            return Math.max(bounds.width, bounds.height) * scale >= minViewSize;
+        };
+    }
+
+    protected boolean isText(View view)
+    {
+        return view instanceof TextView || view instanceof HtmlView || view instanceof ComplexTextView;
+    }
+}
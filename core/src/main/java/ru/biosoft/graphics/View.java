@@ -5,7 +5,16 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -42,6 +51,11 @@ public abstract class View
     *  Affine transformer of view
     */
     protected AffineTransform at;
+
+    /**
+     * Composite view containing this view. If the view was added to several composites, the first one is kept.
+     */
+    protected CompositeView parent = null;
     
     /**
      * Bit field of {@link #type}.It is set, if the view can be manipulated.
@@ -110,6 +124,7 @@ public abstract class View
     public void setModel(Object model)
     {
         this.model = model;
+        invalidateContentHash();
     }
     
     /**
@@ -123,6 +138,40 @@ public abstract class View
     {
         return shape.getBounds();
     }
+
+    /**
+     * Stores bounds of this view into the specified rectangle.
+     *
+     * Subclasses override this method when bounds can be calculated without allocation of a new rectangle,
+     * subclasses which override {@link #getBounds()} should override this method as well.
+     *
+     * @param rv rectangle to store the result
+     * @return <code>rv</code>
+     */
+    public Rectangle getBounds(Rectangle rv)
+    {
+        rv.setBounds(getBounds());
+        return rv;
+    }
+
+    /**
+     * Stores integer bounds of the rectangle with the specified double coordinates into <code>rv</code>
+     * rounding them the same way as {@link java.awt.geom.RectangularShape#getBounds()} does.
+     */
+    protected static Rectangle setBounds(Rectangle rv, double x, double y, double width, double height)
+    {
+        if( width < 0 || height < 0 )
+        {
+            rv.setBounds(0, 0, 0, 0);
+            return rv;
+        }
+        double x1 = Math.floor(x);
+        double y1 = Math.floor(y);
+        double x2 = Math.ceil(x + width);
+        double y2 = Math.ceil(y + height);
+        rv.setBounds((int)x1, (int)y1, (int) ( x2 - x1 ), (int) ( y2 - y1 ));
+        return rv;
+    }
     
     /**
      * Returns shape of
@@ -137,9 +186,32 @@ public abstract class View
     
     /**
      * Synchronizes the <code>Rectangle</code> rectangle returned by {@link #getBounds()}
-     * with view. Base implementation of method does nothing.
+     * with view. Base implementation drops cached bounds, it should be called
+     * if the shape of the view was changed directly.
+     */
+    public void updateBounds()
+    {
+        invalidateBounds();
+    }
+
+    /**
+     * Called when bounds of the view are changed. Subclasses caching bounds should drop the cache
+     * here and call super method which notifies the parent view.
+     */
+    protected void invalidateBounds()
+    {
+        invalidateContentHash();
+        if( parent != null )
+            parent.childBoundsChanged(this);
+    }
+
+    /**
+     * Returns composite view containing this view or <code>null</code>.
      */
-    public void updateBounds() {}
+    public CompositeView getParent()
+    {
+        return parent;
+    }
 
     /**
      * Tests if this View's shape intersects the interior of a specified rectangle.
@@ -211,6 +283,7 @@ public abstract class View
     public void setToScale(double factorX, double factorY)
     {
         at.setToScale(factorX, factorY);
+        invalidateBounds();
     }
     
     /**
@@ -247,6 +320,7 @@ public abstract class View
             type |= ACTIVE | SELECTABLE;
         else
             type &= ~ACTIVE & ~SELECTABLE;
+        invalidateContentHash();
     }
     
     /**
@@ -270,6 +344,7 @@ public abstract class View
             type |= SELECTABLE;
         else
             type &= ~SELECTABLE;
+        invalidateContentHash();
     }
     
     /**
@@ -293,6 +368,7 @@ public abstract class View
             type |= HIDE;
         else
             type &= ~HIDE;
+        invalidateContentHash();
     }
 
     /**
@@ -324,10 +400,62 @@ public abstract class View
         }
     }
 
+    // /////////////////////////////////////////////////////////////////////////
+    // Content hash
+    //
+
+    private int contentHash;
+    private volatile boolean contentHashValid = false;
+
+    /**
+     * Returns {@link #contentHash()}. Note that the hash changes when the view is changed.
+     */
     @Override
     public int hashCode()
     {
-        throw new UnsupportedOperationException();
+        return contentHash();
+    }
+
+    /**
+     * Returns hash of the data compared by {@link #equals(Object)}. Hash of the composite view is calculated
+     * from the hashes of its children. Hash is cached and recalculated only after the view or its children are changed.
+     *
+     * Changes made through view methods are tracked, if the view fields or the shape are changed directly,
+     * {@link #updateBounds()} should be called. Model is compared by its string representation, which is not tracked.
+     */
+    public int contentHash()
+    {
+        if( !contentHashValid )
+        {
+            contentHash = computeContentHash();
+            contentHashValid = true;
+        }
+        return contentHash;
+    }
+
+    /**
+     * Calculates {@link #contentHash()}. Subclasses which compare own fields in {@link #equals(Object)}
+     * should add them to the hash.
+     */
+    protected int computeContentHash()
+    {
+        int result = type;
+        result = 31 * result + ( model == null ? 0 : model.toString().hashCode() );
+        result = 31 * result + ( shape == null ? 0 : shape.getBounds().hashCode() );
+        return result;
+    }
+
+    /**
+     * Drops cached content hash of this view and all its parents.
+     */
+    protected void invalidateContentHash()
+    {
+        if( contentHashValid )
+        {
+            contentHashValid = false;
+            if( parent != null )
+                parent.invalidateContentHash();
+        }
     }
 
     @Override
@@ -338,6 +466,9 @@ public abstract class View
         if( obj == this )
             return true;
         View v = (View)obj;
+        // views of the same class with different cached hashes can not be equal
+        if( getClass() == v.getClass() && contentHashValid && v.contentHashValid && contentHash != v.contentHash )
+            return false;
         if( type != v.type )
             return false;
         if( ( model == null ^ v.model == null ) || ( model != null && !model.toString().equals(v.model.toString()) ) )
@@ -380,6 +511,77 @@ public abstract class View
         return result;
     }
 
+    /**
+     * Writes JSON representation of the view to the writer. Result is the same as of {@link #toJSON()},
+     * but composite views write children one by one, so the whole JSON tree is not built in memory.
+     * Writer is not flushed or closed.
+     */
+    public void writeJSON(Writer writer) throws IOException, JSONException
+    {
+        toJSON().write(writer);
+    }
+
+    /**
+     * Writes JSON representation of the view to the stream in UTF-8 encoding, see {@link #writeJSON(Writer)}.
+     * Stream is flushed but not closed.
+     */
+    public void writeJSON(OutputStream out) throws IOException, JSONException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writeJSON(writer);
+        writer.flush();
+    }
+
+    /**
+     * Returns JSON representation of the part of the view visible in the viewport:
+     * composite views write only children which intersect the viewport.
+     *
+     * @param viewport visible area in device coordinates
+     * @param scale ratio of device coordinates to view coordinates
+     * @return JSON or <code>null</code> if the view is outside of the viewport
+     */
+    public JSONObject toJSON(Rectangle viewport, double scale) throws JSONException
+    {
+        int x1 = (int)Math.floor(viewport.x / scale);
+        int y1 = (int)Math.floor(viewport.y / scale);
+        int x2 = (int)Math.ceil( ( viewport.x + viewport.width ) / scale);
+        int y2 = (int)Math.ceil( ( viewport.y + viewport.height ) / scale);
+        Rectangle area = new Rectangle(x1, y1, x2 - x1, y2 - y1);
+        area.grow(CompositeView.PAINT_MARGIN, CompositeView.PAINT_MARGIN);
+        return toJSON(area, null);
+    }
+
+    /**
+     * Returns JSON of the view if it intersects the area or <code>null</code> otherwise.
+     *
+     * @param area area in view coordinates
+     * @param filter views which should be written, <code>null</code> means all views. Filter is applied to children
+     * of composite views, the view itself is not checked.
+     */
+    protected JSONObject toJSON(Rectangle area, Predicate<View> filter) throws JSONException
+    {
+        return intersectsArea(getBounds(new Rectangle()), area) ? toJSON() : null;
+    }
+
+    /**
+     * Checks intersection of the bounds with the area, views with zero width or height
+     * touching the area are considered intersecting.
+     */
+    protected static boolean intersectsArea(Rectangle bounds, Rectangle area)
+    {
+        return bounds.x <= area.x + area.width && area.x <= bounds.x + bounds.width && bounds.y <= area.y + area.height
+                && area.y <= bounds.y + bounds.height;
+    }
+
+    /**
+     * Returns JSON representation where pens, brushes and fonts are written once in the "styles" array
+     * and views refer to them by index, see {@link StyleDictionary}.
+     */
+    public JSONObject toCompactJSON() throws JSONException
+    {
+        return StyleDictionary.compact(toJSON());
+    }
+
     public JSONObject toJSONIfChanged(View v) throws JSONException
     {
         if( !equals(v) )
@@ -412,16 +614,93 @@ public abstract class View
         View child = null;
         try
         {
-            String className = childObj.getString("class");
+            if( StyleDictionary.isCompact(childObj) )
+                childObj = StyleDictionary.expand(childObj);
+            Decoder decoder = getDecoder(childObj.getString("class"));
+            if( decoder != null )
+                child = decoder.decode(childObj);
+        }
+        catch( Exception e )
+        {
+        }
+        return child;
+    }
+
+    // /////////////////////////////////////////////////////////////////////////
+    // Decoders
+    //
+
+    /**
+     * Creates view from its JSON representation.
+     */
+    public static interface Decoder
+    {
+        public View decode(JSONObject json) throws Exception;
+    }
+
+    /** Decoders by the class name as it is written by {@link #toJSON()}, {@link #NO_DECODER} if class can not be decoded */
+    private static final Map<String, Decoder> decoders = new ConcurrentHashMap<>();
+
+    private static final Decoder NO_DECODER = json -> null;
+
+    static
+    {
+        registerDecoder("ArrowView", ArrowView::new);
+        registerDecoder("BoxView", BoxView::new);
+        registerDecoder("ComplexTextView", ComplexTextView::new);
+        registerDecoder("CompositeView", CompositeView::new);
+        registerDecoder("DummyView", DummyView::new);
+        registerDecoder("EllipseView", EllipseView::new);
+        registerDecoder("FigureView", FigureView::new);
+        registerDecoder("HtmlView", HtmlView::new);
+        registerDecoder("ImageView", ImageView::new);
+        registerDecoder("LazyCompositeView", LazyCompositeView::new);
+        registerDecoder("LineView", LineView::new);
+        registerDecoder("PathView", PathView::new);
+        registerDecoder("PolygonView", PolygonView::new);
+        registerDecoder("PolylineView", PolylineView::new);
+        registerDecoder("Ruler", Ruler::new);
+        registerDecoder("TextView", TextView::new);
+    }
+
+    /**
+     * Registers decoder for the class name used in the "class" field of JSON.
+     */
+    public static void registerDecoder(String className, Decoder decoder)
+    {
+        decoders.put(className, decoder);
+    }
+
+    /**
+     * Returns decoder for the class name or <code>null</code> if there is no such view class.
+     * Classes of this package which are not registered are resolved once by the constructor with {@link JSONObject} argument.
+     */
+    public static Decoder getDecoder(String className)
+    {
+        Decoder decoder = decoders.get(className);
+        if( decoder == null )
+        {
+            decoder = createDecoder(className);
+            decoders.putIfAbsent(className, decoder);
+        }
+        return decoder == NO_DECODER ? null : decoder;
+    }
+
+    private static Decoder createDecoder(String className)
+    {
+        try
+        {
             int ind = View.class.getName().lastIndexOf(".");
             Class<?> c = View.class.getClassLoader().loadClass(View.class.getName().substring(0, ind + 1) + className);
+            if( !View.class.isAssignableFrom(c) )
+                return NO_DECODER;
             Constructor<?> constructor = c.getConstructor(JSONObject.class);
-            child = (View)constructor.newInstance(new Object[] {childObj});
+            return json -> (View)constructor.newInstance(json);
         }
         catch( Exception e )
         {
+            return NO_DECODER;
         }
-        return child;
     }
 
     @Override
@@ -0,0 +1,531 @@
+package ru.biosoft.graphics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compact binary form of the view JSON representation, used to cache and transfer diagrams.
+ *
+ * The stream contains the same data as {@link View#toJSON()}, and views are restored by the same
+ * {@link View.Decoder}s as {@link View#fromJSON(JSONObject)} uses, but
+ * <ul>
+ * <li>keys, class names and other strings are written once and then referenced by index;</li>
+ * <li>pens, brushes and fonts are written once per document and then referenced by index;</li>
+ * <li>integers are written as variable length numbers, every integer field is written as the difference
+ * with the previous value of the field with the same name, arrays of integers are written as differences
+ * of the neighbour elements, so coordinates of nearby views take one or two bytes.</li>
+ * </ul>
+ * Dictionaries are filled while the document is written, so the document is written and read in one pass.
+ */
+public class ViewBinaryCodec
+{
+    /** "BVW" and format version */
+    private static final int MAGIC = 0x42565701;
+
+    private static final int T_NULL = 0;
+    private static final int T_FALSE = 1;
+    private static final int T_TRUE = 2;
+    private static final int T_INT = 3;
+    private static final int T_DOUBLE = 4;
+    private static final int T_STRING = 5;
+    private static final int T_ARRAY = 6;
+    private static final int T_INT_ARRAY = 7;
+    private static final int T_OBJECT = 8;
+    private static final int T_STYLE = 9;
+
+    private static final String CHILDREN = "children";
+
+    private ViewBinaryCodec()
+    {
+    }
+
+    /**
+     * Writes the view to the stream. Stream is flushed but not closed.
+     */
+    public static void write(View view, OutputStream out) throws IOException, JSONException
+    {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        new Encoder(data).writeView(view);
+        data.flush();
+    }
+
+    public static byte[] toBytes(View view) throws JSONException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try
+        {
+            write(view, out);
+        }
+        catch( IOException e )
+        {
+            throw new JSONException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads view from the stream.
+     *
+     * @return view or <code>null</code> if the class of the root view can not be decoded
+     */
+    public static View read(InputStream in) throws IOException
+    {
+        return createDecoder(in).readView();
+    }
+
+    public static View fromBytes(byte[] bytes) throws IOException
+    {
+        return read(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Reads JSON representation of the view from the stream, it is equal to the result of {@link View#toJSON()}
+     * of the written view.
+     */
+    public static JSONObject readJSON(InputStream in) throws IOException
+    {
+        Decoder decoder = createDecoder(in);
+        Object value = decoder.readValue(-1);
+        if( ! ( value instanceof JSONObject ) )
+            throw new IOException("View object expected");
+        return (JSONObject)value;
+    }
+
+    private static Decoder createDecoder(InputStream in) throws IOException
+    {
+        DataInputStream data = new DataInputStream(in instanceof BufferedInputStream || in instanceof ByteArrayInputStream ? in
+                : new BufferedInputStream(in));
+        if( data.readInt() != MAGIC )
+            throw new IOException("Stream does not contain views");
+        return new Decoder(data);
+    }
+
+    private static boolean isStyle(String key)
+    {
+        return "pen".equals(key) || "brush".equals(key) || "font".equals(key);
+    }
+
+    // /////////////////////////////////////////////////////////////////////////
+    // Encoding
+    //
+
+    private static class Encoder
+    {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<JSONObject, Integer> styleObjects = new IdentityHashMap<>();
+        private final Map<String, Integer> styles = new HashMap<>();
+        /** Last integer value by the key index */
+        private long[] lastInts = new long[64];
+
+        Encoder(DataOutputStream out)
+        {
+            this.out = out;
+        }
+
+        void writeView(View view) throws IOException, JSONException
+        {
+            if( ! ( view instanceof CompositeView ) || ! ( (CompositeView)view ).isStreamable() )
+            {
+                writeValue(view.toJSON(), -1);
+                return;
+            }
+
+            CompositeView cv = (CompositeView)view;
+            JSONObject header = cv.toHeaderJSON();
+            out.write(T_OBJECT);
+            writeVarLong(header.length() + 1);
+            writeFields(header);
+
+            writeString(CHILDREN);
+            out.write(T_ARRAY);
+            int count = 0;
+            for( int i = 0; i < cv.size(); i++ )
+            {
+                if( cv.elementAt(i).isVisible() )
+                    count++;
+            }
+            writeVarLong(count);
+            for( int i = 0; i < cv.size(); i++ )
+            {
+                View child = cv.elementAt(i);
+                if( child.isVisible() )
+                    writeView(child);
+            }
+        }
+
+        /**
+         * Children are written after other fields, so the class of the view is known when its children are read.
+         */
+        private void writeFields(JSONObject obj) throws IOException, JSONException
+        {
+            Iterator<String> keys = obj.keys();
+            while( keys.hasNext() )
+            {
+                String key = keys.next();
+                if( !CHILDREN.equals(key) )
+                    writeField(obj, key);
+            }
+            if( obj.has(CHILDREN) )
+                writeField(obj, CHILDREN);
+        }
+
+        private void writeField(JSONObject obj, String key) throws IOException, JSONException
+        {
+            int keyIndex = writeString(key);
+            Object value = obj.get(key);
+            if( value instanceof JSONObject && isStyle(key) )
+                writeStyle((JSONObject)value);
+            else
+                writeValue(value, keyIndex);
+        }
+
+        private void writeStyle(JSONObject style) throws IOException, JSONException
+        {
+            Integer index = styleObjects.get(style);
+            if( index == null )
+            {
+                String str = style.toString();
+                index = styles.get(str);
+                if( index == null )
+                {
+                    out.write(T_STYLE);
+                    writeVarLong(styles.size());
+                    styles.put(str, styles.size());
+                    styleObjects.put(style, styles.size() - 1);
+                    writeVarLong(style.length());
+                    writeFields(style);
+                    return;
+                }
+                styleObjects.put(style, index);
+            }
+            out.write(T_STYLE);
+            writeVarLong(index);
+        }
+
+        private void writeValue(Object value, int keyIndex) throws IOException, JSONException
+        {
+            if( value == null || value == JSONObject.NULL )
+                out.write(T_NULL);
+            else if( value instanceof Boolean )
+                out.write((Boolean)value ? T_TRUE : T_FALSE);
+            else if( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte )
+            {
+                long v = ( (Number)value ).longValue();
+                out.write(T_INT);
+                if( keyIndex >= 0 )
+                {
+                    writeVarLong(zigZag(v - lastInts[keyIndex]));
+                    lastInts[keyIndex] = v;
+                }
+                else
+                    writeVarLong(zigZag(v));
+            }
+            else if( value instanceof Number )
+            {
+                out.write(T_DOUBLE);
+                out.writeDouble( ( (Number)value ).doubleValue());
+            }
+            else if( value instanceof JSONObject )
+            {
+                JSONObject obj = (JSONObject)value;
+                out.write(T_OBJECT);
+                writeVarLong(obj.length());
+                writeFields(obj);
+            }
+            else if( value instanceof JSONArray )
+                writeArray((JSONArray)value);
+            else
+            {
+                out.write(T_STRING);
+                writeString(value.toString());
+            }
+        }
+
+        private void writeArray(JSONArray array) throws IOException, JSONException
+        {
+            int length = array.length();
+            boolean ints = length > 0;
+            for( int i = 0; i < length && ints; i++ )
+            {
+                Object value = array.get(i);
+                ints = value instanceof Integer || value instanceof Long;
+            }
+            if( ints )
+            {
+                out.write(T_INT_ARRAY);
+                writeVarLong(length);
+                long previous = 0;
+                for( int i = 0; i < length; i++ )
+                {
+                    long v = ( (Number)array.get(i) ).longValue();
+                    writeVarLong(zigZag(v - previous));
+                    previous = v;
+                }
+                return;
+            }
+            out.write(T_ARRAY);
+            writeVarLong(length);
+            for( int i = 0; i < length; i++ )
+                writeValue(array.get(i), -1);
+        }
+
+        /**
+         * Writes reference to the string, new strings are written after the reference.
+         * @return index of the string
+         */
+        private int writeString(String str) throws IOException
+        {
+            Integer index = strings.get(str);
+            if( index != null )
+            {
+                writeVarLong(index);
+                return index;
+            }
+            int newIndex = strings.size();
+            strings.put(str, newIndex);
+            if( newIndex == lastInts.length )
+                lastInts = Arrays.copyOf(lastInts, newIndex * 2);
+            writeVarLong(newIndex);
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            out.write(bytes);
+            return newIndex;
+        }
+
+        private void writeVarLong(long v) throws IOException
+        {
+            while( ( v & ~0x7FL ) != 0 )
+            {
+                out.write((int) ( ( v & 0x7F ) | 0x80 ));
+                v >>>= 7;
+            }
+            out.write((int)v);
+        }
+
+        private static long zigZag(long v)
+        {
+            return ( v << 1 ) ^ ( v >> 63 );
+        }
+    }
+
+    // /////////////////////////////////////////////////////////////////////////
+    // Decoding
+    //
+
+    private static class Decoder
+    {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+        private final List<JSONObject> styles = new ArrayList<>();
+        private long[] lastInts = new long[64];
+
+        Decoder(DataInputStream in)
+        {
+            this.in = in;
+        }
+
+        /**
+         * Reads view object, children of composite views are created while they are read,
+         * children of {@link LazyCompositeView} are kept as JSON.
+         */
+        View readView() throws IOException
+        {
+            int tag = in.read();
+            if( tag != T_OBJECT )
+                return toView(readValue(tag, -1));
+
+            JSONObject fields = new JSONObject();
+            List<View> children = null;
+            int count = readInt();
+            for( int i = 0; i < count; i++ )
+            {
+                int keyIndex = readStringIndex();
+                String key = strings.get(keyIndex);
+                tag = in.read();
+                if( tag == T_ARRAY && CHILDREN.equals(key) && !LazyCompositeView.isLazy(fields) )
+                {
+                    int length = readInt();
+                    children = new ArrayList<>(length);
+                    for( int j = 0; j < length; j++ )
+                    {
+                        View child = readView();
+                        if( child != null )
+                            children.add(child);
+                    }
+                }
+                else
+                    put(fields, key, readValue(tag, keyIndex));
+            }
+
+            return CompositeView.fromJSON(fields, children);
+        }
+
+        private static View toView(Object value)
+        {
+            return value instanceof JSONObject ? View.fromJSON((JSONObject)value) : null;
+        }
+
+        Object readValue(int keyIndex) throws IOException
+        {
+            return readValue(in.read(), keyIndex);
+        }
+
+        private Object readValue(int tag, int keyIndex) throws IOException
+        {
+            switch( tag )
+            {
+                case T_NULL:
+                    return JSONObject.NULL;
+                case T_FALSE:
+                    return Boolean.FALSE;
+                case T_TRUE:
+                    return Boolean.TRUE;
+                case T_INT:
+                {
+                    long v = unZigZag(readVarLong());
+                    if( keyIndex >= 0 )
+                    {
+                        v += lastInts[keyIndex];
+                        lastInts[keyIndex] = v;
+                    }
+                    return toNumber(v);
+                }
+                case T_DOUBLE:
+                    return in.readDouble();
+                case T_STRING:
+                    return strings.get(readStringIndex());
+                case T_OBJECT:
+                    return readFields(new JSONObject(), readInt());
+                case T_STYLE:
+                {
+                    int index = readInt();
+                    if( index < styles.size() )
+                        return styles.get(index);
+                    if( index != styles.size() )
+                        throw new IOException("Invalid style reference: " + index);
+                    JSONObject style = new JSONObject();
+                    styles.add(style);
+                    return readFields(style, readInt());
+                }
+                case T_INT_ARRAY:
+                {
+                    int length = readInt();
+                    JSONArray array = new JSONArray();
+                    long previous = 0;
+                    for( int i = 0; i < length; i++ )
+                    {
+                        previous += unZigZag(readVarLong());
+                        array.put(toNumber(previous));
+                    }
+                    return array;
+                }
+                case T_ARRAY:
+                {
+                    int length = readInt();
+                    JSONArray array = new JSONArray();
+                    for( int i = 0; i < length; i++ )
+                        array.put(readValue(-1));
+                    return array;
+                }
+                case -1:
+                    throw new IOException("Unexpected end of stream");
+                default:
+                    throw new IOException("Unknown value tag: " + tag);
+            }
+        }
+
+        private JSONObject readFields(JSONObject obj, int count) throws IOException
+        {
+            for( int i = 0; i < count; i++ )
+            {
+                int keyIndex = readStringIndex();
+                String key = strings.get(keyIndex);
+                put(obj, key, readValue(keyIndex));
+            }
+            return obj;
+        }
+
+        private static void put(JSONObject obj, String key, Object value) throws IOException
+        {
+            try
+            {
+                obj.put(key, value);
+            }
+            catch( JSONException e )
+            {
+                throw new IOException(e);
+            }
+        }
+
+        private int readStringIndex() throws IOException
+        {
+            int index = readInt();
+            if( index < strings.size() )
+                return index;
+            if( index != strings.size() )
+                throw new IOException("Invalid string reference: " + index);
+            byte[] bytes = new byte[readInt()];
+            in.readFully(bytes);
+            strings.add(new String(bytes, StandardCharsets.UTF_8));
+            if( index == lastInts.length )
+                lastInts = Arrays.copyOf(lastInts, index * 2);
+            return index;
+        }
+
+        private int readInt() throws IOException
+        {
+            long v = readVarLong();
+            if( v < 0 || v > Integer.MAX_VALUE )
+                throw new IOException("Invalid length: " + v);
+            return (int)v;
+        }
+
+        private long readVarLong() throws IOException
+        {
+            long result = 0;
+            for( int shift = 0; shift < 64; shift += 7 )
+            {
+                int b = in.read();
+                if( b < 0 )
+                    throw new IOException("Unexpected end of stream");
+                result |= (long) ( b & 0x7F ) << shift;
+                if( ( b & 0x80 ) == 0 )
+                    return result;
+            }
+            throw new IOException("Malformed number");
+        }
+
+        private static long unZigZag(long v)
+        {
+            return ( v >>> 1 ) ^ -( v & 1 );
+        }
+
+        private static Number toNumber(long v)
+        {
+            if( v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE )
+                return (int)v;
+            return v;
+        }
+    }
+}
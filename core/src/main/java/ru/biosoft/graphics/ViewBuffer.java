@@ -0,0 +1,131 @@
+package ru.biosoft.graphics;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of views reused between queries.
+ *
+ * Buffer is used as a stack: nested queries append their results after the results of
+ * the enclosing query and truncate the buffer back when they are finished, so one buffer
+ * serves the whole tree traversal without allocations in steady state.
+ */
+public final class ViewBuffer
+{
+    private View[] views;
+    private double[] keys;
+    private int size;
+
+    public ViewBuffer()
+    {
+        this(64);
+    }
+
+    public ViewBuffer(int capacity)
+    {
+        views = new View[Math.max(capacity, 4)];
+        keys = new double[views.length];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public View get(int i)
+    {
+        return views[i];
+    }
+
+    public void add(View view)
+    {
+        add(view, size);
+    }
+
+    void add(View view, double key)
+    {
+        if( size == views.length )
+        {
+            views = Arrays.copyOf(views, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        views[size] = view;
+        keys[size] = key;
+        size++;
+    }
+
+    /**
+     * Drops all views starting from the specified position.
+     */
+    public void truncate(int newSize)
+    {
+        for( int i = newSize; i < size; i++ )
+            views[i] = null;
+        size = newSize;
+    }
+
+    public void clear()
+    {
+        truncate(0);
+    }
+
+    /**
+     * Sorts views in range [from, to) by the keys they were added with.
+     */
+    void sort(int from, int to)
+    {
+        // insertion sort for short runs, heap sort otherwise: both work in place
+        if( to - from <= 32 )
+        {
+            for( int i = from + 1; i < to; i++ )
+            {
+                View v = views[i];
+                double k = keys[i];
+                int j = i - 1;
+                while( j >= from && keys[j] > k )
+                {
+                    views[j + 1] = views[j];
+                    keys[j + 1] = keys[j];
+                    j--;
+                }
+                views[j + 1] = v;
+                keys[j + 1] = k;
+            }
+            return;
+        }
+
+        int n = to - from;
+        for( int i = n / 2 - 1; i >= 0; i-- )
+            siftDown(from, i, n);
+        for( int i = n - 1; i > 0; i-- )
+        {
+            swap(from, from + i);
+            siftDown(from, 0, i);
+        }
+    }
+
+    private void siftDown(int base, int i, int n)
+    {
+        while( true )
+        {
+            int child = 2 * i + 1;
+            if( child >= n )
+                return;
+            if( child + 1 < n && keys[base + child + 1] > keys[base + child] )
+                child++;
+            if( keys[base + i] >= keys[base + child] )
+                return;
+            swap(base + i, base + child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j)
+    {
+        View v = views[i];
+        views[i] = views[j];
+        views[j] = v;
+        double k = keys[i];
+        keys[i] = keys[j];
+        keys[j] = k;
+    }
+}
@@ -0,0 +1,293 @@
+package ru.biosoft.graphics;
+
+import java.awt.Rectangle;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Incremental transfer of the composite view as newline delimited JSON, so the client can paint
+ * the part of the diagram it looks at before the whole diagram is received.
+ *
+ * The first line is JSON of the composite view without children, every next line is the chunk
+ * <code>{"index":n,"view":{...}}</code> with one visible child and its position among the visible children.
+ * Children intersecting the focus rectangle are written first, the rest follow in the order of the distance
+ * from the focus. {@link Assembler} inserts received children at their positions, so the painting order
+ * of the assembled view is the same as the one of the original view at any moment.
+ *
+ * By default every child is one chunk, so a child composite view is transferred as a whole.
+ * {@link #write(CompositeView, Rectangle, int, Writer)} splits child composite views down to the given depth:
+ * such child is written as the chunk without children and its children follow as chunks with the
+ * <code>"parent":[i0,i1,...]</code> path of indexes from the root. Composite views which write own fields
+ * (see {@link LazyCompositeView}, {@link VirtualCompositeView}) are never split.
+ *
+ * <pre>
+ * ViewChunkStream.write(diagramView, visibleRect, writer);
+ * ...
+ * ViewChunkStream.Assembler assembler = new ViewChunkStream.Assembler();
+ * while( ( line = reader.readLine() ) != null )
+ *     if( assembler.accept(line) != null )
+ *         repaint(assembler.getView());
+ * </pre>
+ */
+public class ViewChunkStream
+{
+    public static final String INDEX = "index";
+    public static final String VIEW = "view";
+    public static final String PARENT = "parent";
+
+    private ViewChunkStream()
+    {
+    }
+
+    /**
+     * Writes the view as newline delimited JSON chunks, every visible child is one chunk.
+     *
+     * @param focus area which should be transferred first, <code>null</code> means that children are written in the painting order
+     * @return number of written lines
+     */
+    public static int write(CompositeView view, Rectangle focus, Writer writer) throws IOException, JSONException
+    {
+        return write(view, focus, 1, writer);
+    }
+
+    /**
+     * Writes the view as newline delimited JSON chunks. The writer is flushed after the first line
+     * and after the chunks intersecting the focus, so the client can paint them while the rest is written.
+     *
+     * @param focus area which should be transferred first, <code>null</code> means that children are written in the painting order
+     * @param depth number of tree levels written as separate chunks, 1 means that every child of the view is one chunk
+     * @return number of written lines
+     */
+    public static int write(CompositeView view, Rectangle focus, int depth, Writer writer) throws IOException, JSONException
+    {
+        if( !view.isStreamable() )
+        {
+            writeLine(writer, view.toJSON());
+            writer.flush();
+            return 1;
+        }
+
+        writeLine(writer, view.toHeaderJSON());
+        writer.flush();
+        ChunkQueue queue = new ChunkQueue(focus);
+        queue.addChildren(view, new int[0], depth);
+        int lines = 1;
+        boolean focusFlushed = false;
+        while( !queue.isEmpty() )
+        {
+            Chunk chunk = queue.poll();
+            if( !chunk.inFocus && !focusFlushed )
+            {
+                writer.flush();
+                focusFlushed = true;
+            }
+            boolean split = chunk.depth > 1 && chunk.view instanceof CompositeView && ( (CompositeView)chunk.view ).isStreamable();
+            JSONObject json = new JSONObject();
+            if( chunk.parent.length > 0 )
+                json.put(PARENT, new JSONArray(chunk.parent));
+            json.put(INDEX, chunk.index);
+            json.put(VIEW, split ? ( (CompositeView)chunk.view ).toHeaderJSON() : chunk.view.toJSON());
+            writeLine(writer, json);
+            lines++;
+            if( split )
+            {
+                int[] path = Arrays.copyOf(chunk.parent, chunk.parent.length + 1);
+                path[chunk.parent.length] = chunk.index;
+                queue.addChildren((CompositeView)chunk.view, path, chunk.depth - 1);
+            }
+        }
+        writer.flush();
+        return lines;
+    }
+
+    private static void writeLine(Writer writer, JSONObject json) throws IOException, JSONException
+    {
+        json.write(writer);
+        writer.write('\n');
+    }
+
+    /**
+     * Chunks ordered by priority. Children of the split composite view are added after its chunk is written,
+     * so the parent always precedes its children.
+     */
+    private static class ChunkQueue extends PriorityQueue<Chunk>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Rectangle focus;
+        private int sequence;
+
+        ChunkQueue(Rectangle focus)
+        {
+            this.focus = focus;
+        }
+
+        void addChildren(CompositeView view, int[] parent, int depth)
+        {
+            int index = 0;
+            for( View child : view )
+            {
+                if( child.isVisible() )
+                    add(new Chunk(child, parent, index++, depth, sequence++, focus));
+            }
+        }
+    }
+
+    /** Child with its priority: intersecting the focus, then the distance to the focus center, then the order of adding */
+    private static class Chunk implements Comparable<Chunk>
+    {
+        final View view;
+        final int[] parent;
+        final int index;
+        final int depth;
+        final int sequence;
+        final boolean inFocus;
+        final double distance;
+
+        Chunk(View view, int[] parent, int index, int depth, int sequence, Rectangle focus)
+        {
+            this.view = view;
+            this.parent = parent;
+            this.index = index;
+            this.depth = depth;
+            this.sequence = sequence;
+            if( focus == null )
+            {
+                inFocus = true;
+                distance = 0;
+            }
+            else
+            {
+                Rectangle bounds = view.getBounds();
+                inFocus = View.intersectsArea(bounds, focus);
+                distance = inFocus ? 0 : Math.hypot(bounds.getCenterX() - focus.getCenterX(), bounds.getCenterY() - focus.getCenterY());
+            }
+        }
+
+        @Override
+        public int compareTo(Chunk o)
+        {
+            if( inFocus != o.inFocus )
+                return inFocus ? -1 : 1;
+            if( distance != o.distance )
+                return Double.compare(distance, o.distance);
+            return Integer.compare(sequence, o.sequence);
+        }
+    }
+
+    /**
+     * Builds the composite view from the lines written by {@link ViewChunkStream#write}.
+     * The view is available after the first line and grows as next lines are accepted.
+     * Assembler is not thread safe: lines should be accepted in the thread which paints the view
+     * or under the same lock.
+     */
+    public static class Assembler
+    {
+        private CompositeView view;
+        /** Received children of the assembled composite views */
+        private final Map<CompositeView, Received> received = new IdentityHashMap<>();
+        private int count;
+
+        /**
+         * Accepts the next line.
+         *
+         * @return view added by this line (the composite view itself for the first line) or <code>null</code>
+         * if the line is empty or the view or its parent can not be decoded
+         * @throws JSONException if the line is not valid JSON or the first line is not the composite view
+         */
+        public View accept(String line) throws JSONException
+        {
+            line = line.trim();
+            if( line.isEmpty() )
+                return null;
+            JSONObject json = new JSONObject(line);
+            if( view == null )
+            {
+                View root = View.fromJSON(json);
+                if( ! ( root instanceof CompositeView ) )
+                    throw new JSONException("Composite view expected: " + json.optString("class"));
+                view = (CompositeView)root;
+                return view;
+            }
+
+            CompositeView parent = view;
+            JSONArray path = json.optJSONArray(PARENT);
+            for( int i = 0; path != null && i < path.length(); i++ )
+            {
+                Received parentReceived = received.get(parent);
+                int pos = parentReceived == null ? -1 : Arrays.binarySearch(parentReceived.indexes, 0, parentReceived.count, path.getInt(i));
+                View next = pos < 0 ? null : parent.elementAt(pos);
+                if( ! ( next instanceof CompositeView ) )
+                    return null;
+                parent = (CompositeView)next;
+            }
+
+            View child = View.fromJSON(json.getJSONObject(VIEW));
+            if( child == null )
+                return null;
+            int pos = received.computeIfAbsent(parent, p -> new Received()).add(json.getInt(INDEX));
+            parent.insert(child, pos);
+            count++;
+            return child;
+        }
+
+        /**
+         * Reads all lines from the reader.
+         *
+         * @return assembled view or <code>null</code> if the reader is empty
+         */
+        public CompositeView readAll(BufferedReader reader) throws IOException, JSONException
+        {
+            String line;
+            while( ( line = reader.readLine() ) != null )
+                accept(line);
+            return view;
+        }
+
+        /**
+         * @return view assembled so far or <code>null</code> if the first line is not accepted yet
+         */
+        public CompositeView getView()
+        {
+            return view;
+        }
+
+        /**
+         * @return number of chunks received so far
+         */
+        public int getReceivedCount()
+        {
+            return count;
+        }
+    }
+
+    /** Sorted indexes of the received children, position in this array is the position in the assembled view */
+    private static class Received
+    {
+        int[] indexes = new int[16];
+        int count;
+
+        int add(int index) throws JSONException
+        {
+            int pos = Arrays.binarySearch(indexes, 0, count, index);
+            if( pos >= 0 )
+                throw new JSONException("Duplicate chunk: " + index);
+            pos = -pos - 1;
+            if( count == indexes.length )
+                indexes = Arrays.copyOf(indexes, count * 2);
+            System.arraycopy(indexes, pos, indexes, pos + 1, count - pos);
+            indexes[pos] = index;
+            count++;
+            return pos;
+        }
+    }
+}
@@ -0,0 +1,530 @@
+package ru.biosoft.graphics;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Difference between two view trees expressed as the list of operations.
+ *
+ * {@link #diff(View, View)} compares the old and the new tree and returns JSON array of operations,
+ * {@link #apply(View, JSONArray)} applies them to the copy of the old tree on the receiving side.
+ * Unchanged subtrees are skipped using {@link View#equals(Object)}, which is short-circuited by the content hashes.
+ *
+ * Every operation contains the "path" to the view from the root: the element of the path is the model key of the child
+ * (see {@link #getKey(View)}) or the index of the child among visible children of its parent for children without model
+ * or with the same model as another child. Only visible children are considered, as they are written by {@link View#toJSON()}.
+ * Operations:
+ * <ul>
+ * <li><code>{"op":"move", "path":[...], "dx":5, "dy":0}</code> - view with all its children is moved;</li>
+ * <li><code>{"op":"restyle", "path":[...], "fields":{"pen":{...}}}</code> - pen, brush or font of the view is changed;</li>
+ * <li><code>{"op":"retext", "path":[...], "fields":{"text":"...", "width":20}}</code> - text of the view is changed;</li>
+ * <li><code>{"op":"replace", "path":[...], "view":{...}}</code> - view is changed in other way;</li>
+ * <li><code>{"op":"remove", "path":[...]}</code> - view is removed from its parent;</li>
+ * <li><code>{"op":"insert", "path":[...], "index":2, "view":{...}}</code> - view is inserted into the composite view
+ * with the path at the specified index among visible children.</li>
+ * </ul>
+ * Operations use paths and indices valid at the moment they are applied, so they should be applied in order.
+ * Composite views which are not {@link CompositeView#isStreamable() streamable}, e.g. arrows, are always replaced as a whole.
+ */
+public class ViewDelta
+{
+    public static final String MOVE = "move";
+    public static final String RESTYLE = "restyle";
+    public static final String RETEXT = "retext";
+    public static final String REPLACE = "replace";
+    public static final String REMOVE = "remove";
+    public static final String INSERT = "insert";
+
+    private static final String CHILDREN = "children";
+    private static final String TEXT = "text";
+
+    private static final Set<String> X_KEYS = new HashSet<>();
+    private static final Set<String> Y_KEYS = new HashSet<>();
+    static
+    {
+        X_KEYS.add("x");
+        X_KEYS.add("x1");
+        X_KEYS.add("x2");
+        X_KEYS.add("xpoints");
+        Y_KEYS.add("y");
+        Y_KEYS.add("y1");
+        Y_KEYS.add("y2");
+        Y_KEYS.add("ypoints");
+        Y_KEYS.add("rect.y");
+    }
+
+    /** Maximal difference of float coordinates which are considered equal */
+    private static final double EPSILON = 1e-3;
+
+    private ViewDelta()
+    {
+    }
+
+    /**
+     * Returns key of the view model used in the paths: string provided by {@link View#getModelResolver()}
+     * or string representation of the model, <code>null</code> if the view has no model.
+     */
+    public static String getKey(View view)
+    {
+        Object model = view.getModel();
+        if( model == null )
+            return null;
+        View.ModelResolver resolver = View.getModelResolver();
+        String key = resolver == null ? null : resolver.toString(model);
+        return key == null ? model.toString() : key;
+    }
+
+    // /////////////////////////////////////////////////////////////////////////
+    // Diff
+    //
+
+    /**
+     * Returns operations which transform the old view tree into the new one.
+     */
+    public static JSONArray diff(View oldView, View newView) throws JSONException
+    {
+        JSONArray ops = new JSONArray();
+        diff(oldView, newView, new JSONArray(), ops);
+        return ops;
+    }
+
+    private static void diff(View oldView, View newView, JSONArray path, JSONArray ops) throws JSONException
+    {
+        if( oldView.equals(newView) )
+            return;
+
+        if( oldView.getClass() != newView.getClass() )
+        {
+            ops.put(op(REPLACE, path).put("view", newView.toJSON()));
+            return;
+        }
+
+        if( newView instanceof CompositeView && ( (CompositeView)newView ).isStreamable() )
+        {
+            CompositeView oldCv = (CompositeView)oldView;
+            CompositeView newCv = (CompositeView)newView;
+            if( !oldCv.toHeaderJSON().similar(newCv.toHeaderJSON()) )
+            {
+                ops.put(op(REPLACE, path).put("view", newView.toJSON()));
+                return;
+            }
+            if( diffMove(oldView, newView, path, ops) )
+                return;
+            diffChildren(oldCv, newCv, path, ops);
+            return;
+        }
+
+        // state of such composite is derived from its children, so it is not patched or moved in place
+        if( newView instanceof CompositeView )
+        {
+            ops.put(op(REPLACE, path).put("view", newView.toJSON()));
+            return;
+        }
+
+        if( diffMove(oldView, newView, path, ops) )
+            return;
+
+        JSONObject oldJSON = oldView.toJSON();
+        JSONObject newJSON = newView.toJSON();
+        JSONObject fields = new JSONObject();
+        boolean styleOnly = true;
+        boolean removed = false;
+        for( String key : keys(oldJSON, newJSON) )
+        {
+            Object newValue = newJSON.opt(key);
+            if( valuesEqual(oldJSON.opt(key), newValue) )
+                continue;
+            if( newValue == null )
+                removed = true;
+            else
+                fields.put(key, newValue);
+            styleOnly = styleOnly && StyleDictionary.isStyle(key);
+        }
+
+        if( fields.length() == 0 && !removed )
+            return;
+        if( !removed && styleOnly )
+            ops.put(op(RESTYLE, path).put("fields", fields));
+        else if( !removed && fields.has(TEXT) )
+            ops.put(op(RETEXT, path).put("fields", fields));
+        else
+            ops.put(op(REPLACE, path).put("view", newJSON));
+    }
+
+    /**
+     * Adds move operation if the new view is the old one translated.
+     */
+    private static boolean diffMove(View oldView, View newView, JSONArray path, JSONArray ops) throws JSONException
+    {
+        Rectangle oldBounds = oldView.getBounds();
+        Rectangle newBounds = newView.getBounds();
+        if( oldBounds.width != newBounds.width || oldBounds.height != newBounds.height )
+            return false;
+        int dx = newBounds.x - oldBounds.x;
+        int dy = newBounds.y - oldBounds.y;
+        if( dx == 0 && dy == 0 )
+            return false;
+        if( newView instanceof CompositeView && !childrenTranslated((CompositeView)oldView, (CompositeView)newView, dx, dy) )
+            return false;
+        if( !translated(oldView.toJSON(), newView.toJSON(), dx, dy) )
+            return false;
+        ops.put(op(MOVE, path).put("dx", dx).put("dy", dy));
+        return true;
+    }
+
+    /**
+     * Quick check of bounds of the children before comparison of JSON of the whole subtree.
+     */
+    private static boolean childrenTranslated(CompositeView oldView, CompositeView newView, int dx, int dy)
+    {
+        if( oldView.size() != newView.size() )
+            return false;
+        Rectangle oldBounds = new Rectangle();
+        Rectangle newBounds = new Rectangle();
+        for( int i = 0; i < oldView.size(); i++ )
+        {
+            oldView.elementAt(i).getBounds(oldBounds);
+            newView.elementAt(i).getBounds(newBounds);
+            oldBounds.translate(dx, dy);
+            if( !oldBounds.equals(newBounds) )
+                return false;
+        }
+        return true;
+    }
+
+    private static void diffChildren(CompositeView oldView, CompositeView newView, JSONArray path, JSONArray ops)
+            throws JSONException
+    {
+        List<View> oldChildren = visibleChildren(oldView);
+        List<View> newChildren = visibleChildren(newView);
+        Object[] oldRefs = references(oldChildren);
+        Object[] newRefs = references(newChildren);
+
+        // old index for every new child, -1 if the child is new;
+        // children without model or with repeated model are matched by order
+        int[] matches = new int[newChildren.size()];
+        Map<Object, Integer> oldIndices = new HashMap<>();
+        List<Integer> unkeyedOld = new ArrayList<>();
+        for( int i = 0; i < oldChildren.size(); i++ )
+        {
+            if( oldRefs[i] instanceof String )
+                oldIndices.put(oldRefs[i], i);
+            else if( oldChildren.get(i).getModel() == null )
+                unkeyedOld.add(i);
+        }
+        int nextUnkeyed = 0;
+        int lastOld = -1;
+        for( int i = 0; i < newChildren.size(); i++ )
+        {
+            Integer oldIndex = null;
+            if( newRefs[i] instanceof String )
+                oldIndex = oldIndices.get(newRefs[i]);
+            else if( newChildren.get(i).getModel() == null && nextUnkeyed < unkeyedOld.size() )
+                oldIndex = unkeyedOld.get(nextUnkeyed++);
+            // children which changed their order are removed and inserted again
+            if( oldIndex == null || oldIndex <= lastOld || oldChildren.get(oldIndex).getClass() != newChildren.get(i).getClass() )
+                matches[i] = -1;
+            else
+            {
+                matches[i] = oldIndex;
+                lastOld = oldIndex;
+            }
+        }
+
+        boolean[] matched = new boolean[oldChildren.size()];
+        for( int i = 0; i < newChildren.size(); i++ )
+        {
+            if( matches[i] >= 0 )
+            {
+                matched[matches[i]] = true;
+                diff(oldChildren.get(matches[i]), newChildren.get(i), append(path, oldRefs[matches[i]]), ops);
+            }
+        }
+        for( int i = oldChildren.size() - 1; i >= 0; i-- )
+        {
+            if( !matched[i] )
+                ops.put(op(REMOVE, append(path, oldRefs[i])));
+        }
+        for( int i = 0; i < newChildren.size(); i++ )
+        {
+            if( matches[i] < 0 )
+                ops.put(op(INSERT, path).put("index", i).put("view", newChildren.get(i).toJSON()));
+        }
+    }
+
+    /**
+     * Returns path elements of the children: unique model key or index.
+     */
+    private static Object[] references(List<View> children)
+    {
+        Object[] refs = new Object[children.size()];
+        Map<String, Integer> first = new HashMap<>();
+        for( int i = 0; i < refs.length; i++ )
+        {
+            String key = getKey(children.get(i));
+            if( key == null )
+            {
+                refs[i] = i;
+                continue;
+            }
+            Integer previous = first.putIfAbsent(key, i);
+            if( previous == null )
+                refs[i] = key;
+            else
+            {
+                refs[i] = i;
+                refs[previous] = previous;
+            }
+        }
+        return refs;
+    }
+
+    private static boolean translated(JSONObject oldJSON, JSONObject newJSON, int dx, int dy) throws JSONException
+    {
+        for( String key : keys(oldJSON, newJSON) )
+        {
+            Object oldValue = oldJSON.opt(key);
+            Object newValue = newJSON.opt(key);
+            if( oldValue == null || newValue == null )
+                return false;
+            if( X_KEYS.contains(key) || Y_KEYS.contains(key) )
+            {
+                int d = X_KEYS.contains(key) ? dx : dy;
+                if( !translatedValue(oldValue, newValue, d) )
+                    return false;
+            }
+            else if( CHILDREN.equals(key) && oldValue instanceof JSONArray && newValue instanceof JSONArray )
+            {
+                JSONArray oldChildren = (JSONArray)oldValue;
+                JSONArray newChildren = (JSONArray)newValue;
+                if( oldChildren.length() != newChildren.length() )
+                    return false;
+                for( int i = 0; i < oldChildren.length(); i++ )
+                {
+                    if( !translated(oldChildren.getJSONObject(i), newChildren.getJSONObject(i), dx, dy) )
+                        return false;
+                }
+            }
+            else if( !valuesEqual(oldValue, newValue) )
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean translatedValue(Object oldValue, Object newValue, int d) throws JSONException
+    {
+        if( oldValue instanceof Number && newValue instanceof Number )
+            return Math.abs( ( (Number)oldValue ).doubleValue() + d - ( (Number)newValue ).doubleValue()) < EPSILON;
+        if( oldValue instanceof JSONArray && newValue instanceof JSONArray )
+        {
+            JSONArray oldArray = (JSONArray)oldValue;
+            JSONArray newArray = (JSONArray)newValue;
+            if( oldArray.length() != newArray.length() )
+                return false;
+            for( int i = 0; i < oldArray.length(); i++ )
+            {
+                if( !translatedValue(oldArray.get(i), newArray.get(i), d) )
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean valuesEqual(Object a, Object b)
+    {
+        if( a == b )
+            return true;
+        if( a == null || b == null )
+            return false;
+        if( a instanceof JSONObject )
+            return b instanceof JSONObject && ( (JSONObject)a ).similar(b);
+        if( a instanceof JSONArray )
+            return b instanceof JSONArray && ( (JSONArray)a ).similar(b);
+        if( a instanceof Number && b instanceof Number )
+            return ( (Number)a ).doubleValue() == ( (Number)b ).doubleValue();
+        return a.equals(b);
+    }
+
+    private static Set<String> keys(JSONObject a, JSONObject b)
+    {
+        Set<String> keys = new HashSet<>(a.keySet());
+        keys.addAll(b.keySet());
+        return keys;
+    }
+
+    private static JSONObject op(String type, JSONArray path) throws JSONException
+    {
+        return new JSONObject().put("op", type).put("path", path);
+    }
+
+    private static JSONArray append(JSONArray path, Object element)
+    {
+        JSONArray result = new JSONArray();
+        for( int i = 0; i < path.length(); i++ )
+            result.put(path.opt(i));
+        return result.put(element);
+    }
+
+    private static List<View> visibleChildren(CompositeView view)
+    {
+        List<View> result = new ArrayList<>(view.size());
+        for( int i = 0; i < view.size(); i++ )
+        {
+            View child = view.elementAt(i);
+            if( child.isVisible() )
+                result.add(child);
+        }
+        return result;
+    }
+
+    // /////////////////////////////////////////////////////////////////////////
+    // Apply
+    //
+
+    /**
+     * Applies operations created by {@link #diff(View, View)} to the old view tree.
+     * The tree is changed, new views are created by {@link View#fromJSON(JSONObject)}.
+     *
+     * @return root of the resulting tree, it differs from the argument if the root view was replaced
+     * @throws JSONException if the operation is invalid or its path is not found
+     */
+    public static View apply(View root, JSONArray ops) throws JSONException
+    {
+        for( int i = 0; i < ops.length(); i++ )
+            root = applyOperation(root, ops.getJSONObject(i));
+        return root;
+    }
+
+    private static View applyOperation(View root, JSONObject op) throws JSONException
+    {
+        String type = op.getString("op");
+        JSONArray path = op.getJSONArray("path");
+        View target = resolve(root, path, path.length());
+        switch( type )
+        {
+            case MOVE:
+                target.move(op.getInt("dx"), op.getInt("dy"));
+                return root;
+            case INSERT:
+            {
+                if( ! ( target instanceof CompositeView ) )
+                    throw new JSONException("Composite view expected at " + path);
+                CompositeView parent = (CompositeView)target;
+                parent.insert(decode(op.getJSONObject("view")), toIndex(parent, op.getInt("index")));
+                return root;
+            }
+            case REMOVE:
+                if( path.length() == 0 )
+                    throw new JSONException("Root view can not be removed");
+                resolveParent(root, path).remove(target);
+                return root;
+            case RESTYLE:
+            case RETEXT:
+            {
+                JSONObject json = target.toJSON();
+                JSONObject fields = op.getJSONObject("fields");
+                Iterator<String> keys = fields.keys();
+                while( keys.hasNext() )
+                {
+                    String key = keys.next();
+                    json.put(key, fields.get(key));
+                }
+                return replace(root, path, target, decode(json));
+            }
+            case REPLACE:
+                return replace(root, path, target, decode(op.getJSONObject("view")));
+            default:
+                throw new JSONException("Unknown operation: " + type);
+        }
+    }
+
+    private static View replace(View root, JSONArray path, View target, View view) throws JSONException
+    {
+        if( path.length() == 0 )
+            return view;
+        CompositeView parent = resolveParent(root, path);
+        for( int i = 0; i < parent.size(); i++ )
+        {
+            if( parent.elementAt(i) == target )
+            {
+                parent.remove(target);
+                parent.insert(view, i);
+                break;
+            }
+        }
+        return root;
+    }
+
+    private static View decode(JSONObject json) throws JSONException
+    {
+        View view = View.fromJSON(json);
+        if( view == null )
+            throw new JSONException("Can not create view of class " + json.optString("class"));
+        return view;
+    }
+
+    private static CompositeView resolveParent(View root, JSONArray path) throws JSONException
+    {
+        return (CompositeView)resolve(root, path, path.length() - 1);
+    }
+
+    private static View resolve(View root, JSONArray path, int length) throws JSONException
+    {
+        View view = root;
+        for( int i = 0; i < length; i++ )
+        {
+            if( ! ( view instanceof CompositeView ) )
+                throw new JSONException("Path not found: " + path);
+            CompositeView parent = (CompositeView)view;
+            Object element = path.get(i);
+            view = null;
+            if( element instanceof Number )
+            {
+                int index = toIndex(parent, ( (Number)element ).intValue());
+                if( index < parent.size() )
+                    view = parent.elementAt(index);
+            }
+            else
+            {
+                for( int j = 0; j < parent.size() && view == null; j++ )
+                {
+                    View child = parent.elementAt(j);
+                    if( child.isVisible() && element.equals(getKey(child)) )
+                        view = child;
+                }
+            }
+            if( view == null )
+                throw new JSONException("Path not found: " + path);
+        }
+        return view;
+    }
+
+    /**
+     * Converts index among visible children into the index in the children list.
+     */
+    private static int toIndex(CompositeView parent, int visibleIndex)
+    {
+        int visible = 0;
+        for( int i = 0; i < parent.size(); i++ )
+        {
+            if( parent.elementAt(i).isVisible() )
+            {
+                if( visible == visibleIndex )
+                    return i;
+                visible++;
+            }
+        }
+        return parent.size();
+    }
+}
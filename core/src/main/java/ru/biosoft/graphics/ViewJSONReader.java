@@ -0,0 +1,174 @@
+package ru.biosoft.graphics;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Reads views from JSON text written by {@link View#writeJSON(java.io.Writer)}.
+ *
+ * Unlike <code>View.fromJSON(new JSONObject(text))</code> the text is not converted into the whole
+ * JSONObject tree first: children of composite views are created while their elements are read,
+ * only the own fields of every view are collected into the small JSONObject passed to its {@link View.Decoder}.
+ * The resulting tree is the same as the one created by {@link View#fromJSON(JSONObject)}.
+ * Compact JSON is supported if the "styles" array precedes views, as it is written by {@link StyleDictionary#write}
+ * and by <code>toString()</code> of {@link View#toCompactJSON()}, otherwise the reader fails on the first style index.
+ */
+public class ViewJSONReader
+{
+    private static final String CHILDREN = "children";
+
+    private final JSONTokener tokener;
+
+    /** Styles of the compact JSON, see {@link StyleDictionary} */
+    private StyleDictionary styles;
+
+    public ViewJSONReader(Reader reader)
+    {
+        tokener = new JSONTokener(reader);
+    }
+
+    public ViewJSONReader(InputStream stream)
+    {
+        this(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads view from the reader.
+     */
+    public static View read(Reader reader) throws JSONException
+    {
+        return new ViewJSONReader(reader).readView();
+    }
+
+    /**
+     * Reads view from UTF-8 encoded stream.
+     */
+    public static View read(InputStream stream) throws JSONException
+    {
+        return new ViewJSONReader(stream).readView();
+    }
+
+    /**
+     * Reads next view object.
+     *
+     * @return view or <code>null</code> if the object class can not be decoded (the same as {@link View#fromJSON(JSONObject)} does)
+     * @throws JSONException if the text is not a valid JSON object or a style index precedes the "styles" array
+     */
+    public View readView() throws JSONException
+    {
+        if( tokener.nextClean() != '{' )
+            throw tokener.syntaxError("A JSONObject text must begin with '{'");
+
+        JSONObject fields = new JSONObject();
+        List<View> children = null;
+        while( true )
+        {
+            char c = tokener.nextClean();
+            if( c == 0 )
+                throw tokener.syntaxError("A JSONObject text must end with '}'");
+            if( c == '}' )
+                break;
+            tokener.back();
+            String key = tokener.nextValue().toString();
+
+            if( tokener.nextClean() != ':' )
+                throw tokener.syntaxError("Expected a ':' after a key");
+
+            if( CHILDREN.equals(key) && nextIs('[') && isLazy(fields) )
+                fields.put(key, tokener.nextValue());
+            else if( CHILDREN.equals(key) && nextIs('[') )
+                children = readChildren();
+            else if( StyleDictionary.STYLES.equals(key) && nextIs('[') )
+                styles = new StyleDictionary((JSONArray)tokener.nextValue());
+            else
+            {
+                Object value = tokener.nextValue();
+                if( value instanceof Number && StyleDictionary.isStyle(key) )
+                {
+                    if( styles == null )
+                        throw tokener.syntaxError("Style index before the \"" + StyleDictionary.STYLES + "\" array");
+                    value = styles.get( ( (Number)value ).intValue());
+                }
+                fields.put(key, value);
+            }
+
+            c = tokener.nextClean();
+            if( c == '}' )
+                break;
+            if( c != ',' && c != ';' )
+                throw tokener.syntaxError("Expected a ',' or '}'");
+            if( nextIs('}') )
+            {
+                tokener.next();
+                break;
+            }
+        }
+
+        return CompositeView.fromJSON(fields, children);
+    }
+
+    /**
+     * Reads array of children, the opening bracket is not read yet.
+     * Elements which can not be decoded are skipped.
+     */
+    private List<View> readChildren() throws JSONException
+    {
+        tokener.next();
+        List<View> children = new ArrayList<>();
+        if( nextIs(']') )
+        {
+            tokener.next();
+            return children;
+        }
+        while( true )
+        {
+            View child = null;
+            if( nextIs('{') )
+                child = readView();
+            else
+                tokener.nextValue();
+            if( child != null )
+                children.add(child);
+
+            char c = tokener.nextClean();
+            if( c == ']' )
+                return children;
+            if( c != ',' && c != ';' )
+                throw tokener.syntaxError("Expected a ',' or ']'");
+            if( nextIs(']') )
+            {
+                tokener.next();
+                return children;
+            }
+        }
+    }
+
+    /**
+     * Children of {@link LazyCompositeView} are kept as JSON if its class precedes them, as it is written by
+     * {@link LazyCompositeView#writeJSON(java.io.Writer)}. Compact JSON is read eagerly, as nested style references
+     * can not be resolved later.
+     */
+    private boolean isLazy(JSONObject fields)
+    {
+        return styles == null && LazyCompositeView.isLazy(fields);
+    }
+
+    /**
+     * Checks the next significant character without consuming it.
+     */
+    private boolean nextIs(char expected) throws JSONException
+    {
+        char c = tokener.nextClean();
+        tokener.back();
+        return c == expected;
+    }
+}
@@ -0,0 +1,214 @@
+package ru.biosoft.graphics;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders views into images without any UI components.
+ *
+ * The image is split into horizontal bands which are painted in parallel on the fork-join pool,
+ * every band is painted through its own <code>Graphics2D</code> clipped to the band, so with
+ * spatially indexed composites each thread paints only the views it can see.
+ * All views of the painted tree should support concurrent painting.
+ *
+ * <pre>
+ * new ViewRasterizer().write(view, 2.0, "png", new File("diagram.png"));
+ * </pre>
+ */
+public class ViewRasterizer
+{
+    public static final int DEFAULT_BAND_HEIGHT = 256;
+
+    private final ForkJoinPool pool;
+    private int bandHeight = DEFAULT_BAND_HEIGHT;
+    private Color background = Color.white;
+    private int imageType = BufferedImage.TYPE_INT_ARGB;
+    private final RenderingHints hints = new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+    /**
+     * Creates rasterizer which uses common fork-join pool.
+     */
+    public ViewRasterizer()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ViewRasterizer(ForkJoinPool pool)
+    {
+        this.pool = pool;
+        hints.put(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    }
+
+    public int getBandHeight()
+    {
+        return bandHeight;
+    }
+
+    public void setBandHeight(int bandHeight)
+    {
+        if( bandHeight <= 0 )
+            throw new IllegalArgumentException("Band height should be positive: " + bandHeight);
+        this.bandHeight = bandHeight;
+    }
+
+    public Color getBackground()
+    {
+        return background;
+    }
+
+    /**
+     * @param background color to fill the image with, <code>null</code> means transparent image
+     */
+    public void setBackground(Color background)
+    {
+        this.background = background;
+    }
+
+    public int getImageType()
+    {
+        return imageType;
+    }
+
+    /**
+     * @param imageType one of <code>BufferedImage.TYPE_*</code> constants
+     */
+    public void setImageType(int imageType)
+    {
+        this.imageType = imageType;
+    }
+
+    public RenderingHints getRenderingHints()
+    {
+        return hints;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Rendering
+    //
+
+    /**
+     * Renders the whole view with the specified scale.
+     */
+    public BufferedImage render(View view, double scale)
+    {
+        return render(view, view.getBounds(), scale);
+    }
+
+    /**
+     * Renders the specified area of the view.
+     *
+     * @param view view to render
+     * @param area area in view coordinates
+     * @param scale scale factor
+     */
+    public BufferedImage render(View view, Rectangle area, double scale)
+    {
+        int width = Math.max(1, (int)Math.ceil(area.width * scale));
+        int height = Math.max(1, (int)Math.ceil(area.height * scale));
+        BufferedImage image = new BufferedImage(width, height, imageType);
+
+        // bounds and spatial indices are calculated lazily, do it once before the threads start
+        if( view instanceof CompositeView )
+            ( (CompositeView)view ).prepareForConcurrentPaint();
+        else
+            view.getBounds();
+
+        int bands = ( height + bandHeight - 1 ) / bandHeight;
+        pool.invoke(new PaintBands(image, view, area, scale, 0, bands));
+        return image;
+    }
+
+    /**
+     * Renders the whole view and writes it to the file.
+     *
+     * @param formatName informal name of the format, for example "png"
+     */
+    public void write(View view, double scale, String formatName, File file) throws IOException
+    {
+        BufferedImage image = render(view, scale);
+        if( !ImageIO.write(image, formatName, file) )
+            throw new IOException("No image writer for format " + formatName);
+    }
+
+    /**
+     * Renders the whole view and writes it to the stream. The stream is not closed.
+     *
+     * @param formatName informal name of the format, for example "png"
+     */
+    public void write(View view, double scale, String formatName, OutputStream out) throws IOException
+    {
+        BufferedImage image = render(view, scale);
+        if( !ImageIO.write(image, formatName, out) )
+            throw new IOException("No image writer for format " + formatName);
+    }
+
+    protected void paintBand(BufferedImage image, View view, Rectangle area, double scale, int band)
+    {
+        int y = band * bandHeight;
+        int h = Math.min(bandHeight, image.getHeight() - y);
+        int w = image.getWidth();
+
+        Graphics2D g = image.getSubimage(0, y, w, h).createGraphics();
+        try
+        {
+            g.setRenderingHints(hints);
+            if( background != null )
+            {
+                g.setColor(background);
+                g.fillRect(0, 0, w, h);
+            }
+            g.setClip(0, 0, w, h);
+            g.translate(0, -y);
+            g.scale(scale, scale);
+            g.translate( -area.x, -area.y);
+            view.paint(g);
+        }
+        finally
+        {
+            g.dispose();
+        }
+    }
+
+    /** Splits range of bands until single band is left */
+    @SuppressWarnings ( "serial" )
+    private class PaintBands extends RecursiveAction
+    {
+        private final BufferedImage image;
+        private final View view;
+        private final Rectangle area;
+        private final double scale;
+        private final int from, to;
+
+        PaintBands(BufferedImage image, View view, Rectangle area, double scale, int from, int to)
+        {
+            this.image = image;
+            this.view = view;
+            this.area = area;
+            this.scale = scale;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if( to - from == 1 )
+            {
+                paintBand(image, view, area, scale, from);
+                return;
+            }
+            int middle = ( from + to ) >>> 1;
+            invokeAll(new PaintBands(image, view, area, scale, from, middle), new PaintBands(image, view, area, scale, middle, to));
+        }
+    }
+}
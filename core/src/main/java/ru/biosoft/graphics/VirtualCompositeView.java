@@ -0,0 +1,412 @@
+package ru.biosoft.graphics;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Composite view whose children are created by the {@link ViewProvider} only for the area which is painted,
+ * hit tested or written to JSON, e.g. features of the genome track.
+ *
+ * Created views are kept in the LRU cache of {@link #getCacheSize()} views, so the memory used by the view
+ * is proportional to the visible area rather than to the number of items. Views can not be added to this
+ * composite directly and iteration over it returns no views, {@link #getViews(Rectangle)} should be used instead.
+ * For the same reason views of the provider are not found by the model index of the editor until they are created,
+ * see {@link #getCachedViews(Object)}. If the provider data are changed, {@link #invalidate()} should be called.
+ *
+ * The view can be moved and scaled like the usual composite view, e.g. while it is laid out by
+ * {@link CompositeView#add(View, int, java.awt.Point)}: the offset is subtracted from the area passed to the provider
+ * and the offset and the scale are applied to every created view, so the provider works in its own coordinates.
+ *
+ * JSON of the view is written as JSON of the usual {@link CompositeView} with all or only visible children,
+ * see {@link View#toJSON(Rectangle, double)}.
+ */
+public class VirtualCompositeView extends CompositeView
+{
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /**
+     * Source of the child views.
+     */
+    public static interface ViewProvider
+    {
+        /**
+         * @return bounds of all items
+         */
+        public Rectangle getBounds();
+
+        /**
+         * Returns items whose views can intersect the area in the painting order.
+         * Items are the keys of the view cache, so they should implement <code>equals</code> and <code>hashCode</code>.
+         */
+        public List<?> getItems(Rectangle area);
+
+        /**
+         * Creates view of the item.
+         */
+        public View createView(Object item);
+    }
+
+    private final ViewProvider provider;
+    private final int cacheSize;
+    private final Map<Object, View> cache;
+    /** Offset of the views relative to the provider coordinates */
+    private int dx, dy;
+    /** Scale applied to the created views */
+    private double sx = 1, sy = 1;
+    private boolean updating = false;
+
+    public VirtualCompositeView(ViewProvider provider)
+    {
+        this(provider, DEFAULT_CACHE_SIZE);
+    }
+
+    public VirtualCompositeView(ViewProvider provider, int cacheSize)
+    {
+        this.provider = provider;
+        this.cacheSize = cacheSize;
+        cache = new LinkedHashMap<Object, View>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, View> eldest)
+            {
+                return size() > VirtualCompositeView.this.cacheSize;
+            }
+        };
+        rect = getProviderBounds();
+    }
+
+    public ViewProvider getProvider()
+    {
+        return provider;
+    }
+
+    public int getCacheSize()
+    {
+        return cacheSize;
+    }
+
+    /**
+     * Returns number of views kept in the cache.
+     */
+    public int getCachedCount()
+    {
+        synchronized( cache )
+        {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Drops created views and reads bounds from the provider again.
+     */
+    public void invalidate()
+    {
+        synchronized( cache )
+        {
+            cache.clear();
+        }
+        rect = getProviderBounds();
+        invalidateContentHash();
+        invalidateBounds();
+    }
+
+    /**
+     * Returns already created views with the specified model, views which were not painted, hit tested or
+     * returned by {@link #getViews(Rectangle)} yet or were removed from the cache are not returned.
+     */
+    public List<View> getCachedViews(Object model)
+    {
+        List<View> result = new ArrayList<>();
+        synchronized( cache )
+        {
+            for( View view : cache.values() )
+            {
+                if( view.getModel() == model )
+                    result.add(view);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns bounds of the provider items in the coordinates of this view.
+     */
+    private Rectangle getProviderBounds()
+    {
+        Rectangle bounds = new Rectangle(provider.getBounds());
+        bounds.translate(dx, dy);
+        return bounds;
+    }
+
+    /**
+     * Returns area in the provider coordinates.
+     */
+    private Rectangle toProviderArea(Rectangle area)
+    {
+        if( dx == 0 && dy == 0 )
+            return area;
+        Rectangle result = new Rectangle(area);
+        result.translate(-dx, -dy);
+        return result;
+    }
+
+    /**
+     * Creates view of the item moved and scaled as this view.
+     */
+    private View createView(Object item)
+    {
+        View view = provider.createView(item);
+        if( view == null )
+            return null;
+        if( sx != 1 || sy != 1 )
+            view.scale(sx, sy);
+        if( dx != 0 || dy != 0 )
+            view.move(dx, dy);
+        return view;
+    }
+
+    /**
+     * Returns views which can intersect the area in the painting order.
+     */
+    public ViewBuffer getViews(Rectangle area)
+    {
+        ViewBuffer result = new ViewBuffer();
+        collectChildren(area, result);
+        return result;
+    }
+
+    @Override
+    protected void collectChildren(Rectangle area, ViewBuffer result)
+    {
+        List<?> items = provider.getItems(area == null ? provider.getBounds() : toProviderArea(area));
+        synchronized( cache )
+        {
+            for( Object item : items )
+            {
+                View view = cache.get(item);
+                if( view == null )
+                {
+                    view = createView(item);
+                    if( view == null )
+                        continue;
+                    view.parent = this;
+                    cache.put(item, view);
+                }
+                result.add(view);
+            }
+        }
+    }
+
+    @Override
+    protected void validateBounds()
+    {
+        // bounds are defined by the provider
+    }
+
+    @Override
+    public void updateBounds()
+    {
+        rect = getProviderBounds();
+        invalidateBounds();
+    }
+
+    @Override
+    protected void childBoundsChanged(View child)
+    {
+        if( !updating )
+            fireViewChanged(child);
+    }
+
+    @Override
+    public int getSelectionPriority(Rectangle rect)
+    {
+        int result = 0;
+        ViewBuffer buffer = getViews(rect);
+        for( int i = 0; i < buffer.size(); i++ )
+            result = Math.max(result, buffer.get(i).getSelectionPriority(rect));
+        return result;
+    }
+
+    @Override
+    public void insert(View v, int i)
+    {
+        throw new UnsupportedOperationException("Views of " + getClass().getSimpleName() + " are created by the provider");
+    }
+
+    @Override
+    public void add(View v)
+    {
+        throw new UnsupportedOperationException("Views of " + getClass().getSimpleName() + " are created by the provider");
+    }
+
+    /**
+     * Moves created views and shifts the area of the next provider queries.
+     */
+    @Override
+    public void move(int x, int y)
+    {
+        View[] views;
+        synchronized( cache )
+        {
+            dx += x;
+            dy += y;
+            views = cache.values().toArray(new View[cache.size()]);
+        }
+        updating = true;
+        try
+        {
+            for( View view : views )
+                view.move(x, y);
+        }
+        finally
+        {
+            updating = false;
+        }
+        fireViewsChanged(views);
+        rect.translate(x, y);
+        invalidateContentHash();
+        invalidateBounds();
+    }
+
+    /**
+     * Scales created views, views created later are scaled as well.
+     */
+    @Override
+    public void scale(double sx, double sy)
+    {
+        View[] views;
+        synchronized( cache )
+        {
+            this.sx *= sx;
+            this.sy *= sy;
+            views = cache.values().toArray(new View[cache.size()]);
+        }
+        updating = true;
+        try
+        {
+            for( View view : views )
+                view.scale(sx, sy);
+        }
+        finally
+        {
+            updating = false;
+        }
+        fireViewsChanged(views);
+        at.scale(sx, sy);
+        invalidateContentHash();
+        invalidateBounds();
+    }
+
+    private void fireViewsChanged(View[] views)
+    {
+        for( View view : views )
+            fireViewChanged(view);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if( obj == this )
+            return true;
+        if( ! ( obj instanceof VirtualCompositeView ) )
+            return false;
+        VirtualCompositeView v = (VirtualCompositeView)obj;
+        if( v.provider != provider || v.dx != dx || v.dy != dy || v.sx != sx || v.sy != sy )
+            return false;
+        return super.equals(obj);
+    }
+
+    @Override
+    protected int computeContentHash()
+    {
+        int result = 31 * super.computeContentHash() + System.identityHashCode(provider);
+        result = 31 * result + dx;
+        result = 31 * result + dy;
+        result = 31 * result + Double.hashCode(sx);
+        result = 31 * result + Double.hashCode(sy);
+        return result;
+    }
+
+    @Override
+    JSONObject toHeaderJSON() throws JSONException
+    {
+        JSONObject result = super.toHeaderJSON();
+        result.put("class", CompositeView.class.getSimpleName());
+        return result;
+    }
+
+    /**
+     * Returns JSON of all provided views, views are created for export and not cached.
+     */
+    @Override
+    public JSONObject toJSON() throws JSONException
+    {
+        JSONObject result = toHeaderJSON();
+        JSONArray childArray = new JSONArray();
+        for( Object item : provider.getItems(provider.getBounds()) )
+        {
+            View view = createView(item);
+            if( view != null && view.isVisible() )
+                childArray.put(view.toJSON());
+        }
+        result.put("children", childArray);
+        return result;
+    }
+
+    @Override
+    protected JSONObject toJSON(Rectangle area, Predicate<View> filter) throws JSONException
+    {
+        if( !intersectsArea(getBounds(), area) )
+            return null;
+
+        JSONObject result = toHeaderJSON();
+        JSONArray childArray = new JSONArray();
+        ViewBuffer buffer = getViews(area);
+        for( int i = 0; i < buffer.size(); i++ )
+        {
+            View view = buffer.get(i);
+            if( !view.isVisible() || ( filter != null && !filter.test(view) ) )
+                continue;
+            JSONObject childJSON = view.toJSON(area, filter);
+            if( childJSON != null )
+                childArray.put(childJSON);
+        }
+        result.put("children", childArray);
+        return result;
+    }
+
+    /**
+     * Writes provided views one by one, views are created for export and not cached.
+     */
+    @Override
+    public void writeJSON(Writer writer) throws IOException, JSONException
+    {
+        String header = toHeaderJSON().toString();
+        writer.write(header, 0, header.length() - 1);
+        writer.write(",\"children\":[");
+        boolean first = true;
+        for( Object item : provider.getItems(provider.getBounds()) )
+        {
+            View view = createView(item);
+            if( view == null || !view.isVisible() )
+                continue;
+            if( !first )
+                writer.write(',');
+            view.writeJSON(writer);
+            first = false;
+        }
+        writer.write("]}");
+    }
+}
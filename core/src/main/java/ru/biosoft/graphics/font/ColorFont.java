@@ -40,9 +40,44 @@ public class ColorFont
         initFromJSON(json);
     }
 
+    private boolean immutable = false;
+
+    /**
+     * Returns <code>true</code> if the font can not be changed, for example if it is shared
+     * by {@link ru.biosoft.graphics.StyleRegistry}. Use {@link #clone()} to get a mutable copy of such font.
+     */
+    public boolean isImmutable()
+    {
+        return immutable;
+    }
+
+    /**
+     * Makes this font immutable, setters throw <code>UnsupportedOperationException</code> after this call.
+     */
+    public void freeze()
+    {
+        immutable = true;
+    }
+
+    protected void checkMutable()
+    {
+        if( immutable )
+            throw new UnsupportedOperationException("Font is immutable, use its copy: " + this);
+    }
+
+    /**
+     * Returns mutable copy of this font.
+     */
+    @Override
+    public ColorFont clone()
+    {
+        return new ColorFont(font, color);
+    }
+
     private Color color;
     public void setColor(Color color)
     {
+        checkMutable();
         this.color = color;
         json = null;
     }
@@ -59,6 +94,7 @@ public class ColorFont
     
     public void setFont(Font font)
     {
+        checkMutable();
         this.font = font;
         json = null;
     }
@@ -143,4 +179,10 @@ public class ColorFont
         return true;
     }
 
+    @Override
+    public int hashCode()
+    {
+        return ( color == null ? 0 : color.hashCode() ) * 31 + ( font == null ? 0 : font.hashCode() );
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,184 @@
+package ru.biosoft.graphics.font;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Text measurement without <code>Graphics</code>.
+ *
+ * Metrics are calculated for the default font render context (identity transform, no antialiasing,
+ * integer metrics), the same as AWT components use, so results do not depend on the thread or the display.
+ * Metrics are cached per font and string widths are cached per font as well. All methods are thread-safe.
+ */
+public class TextMetrics
+{
+    /** Maximal number of cached string widths per font */
+    private static final int MAX_CACHED_STRINGS = 4096;
+
+    private static final FontRenderContext FRC = new FontRenderContext(null, false, false);
+
+    private static final Map<Font, CachedFontMetrics> metrics = new ConcurrentHashMap<>();
+
+    private static Graphics2D graphics = null;
+
+    private TextMetrics()
+    {
+    }
+
+    public static FontRenderContext getFontRenderContext()
+    {
+        return FRC;
+    }
+
+    public static FontMetrics getFontMetrics(Font font)
+    {
+        CachedFontMetrics result = metrics.get(font);
+        if( result == null )
+        {
+            result = new CachedFontMetrics(createFontMetrics(font));
+            CachedFontMetrics old = metrics.putIfAbsent(font, result);
+            if( old != null )
+                result = old;
+        }
+        return result;
+    }
+
+    public static FontMetrics getFontMetrics(ColorFont font)
+    {
+        return getFontMetrics(font.getFont());
+    }
+
+    /**
+     * Returns metrics of the graphics if it is specified or shared metrics otherwise.
+     *
+     * @param font font to measure
+     * @param graphics graphics to get metrics from, may be <code>null</code>
+     */
+    public static FontMetrics getFontMetrics(Font font, Graphics graphics)
+    {
+        return graphics == null ? getFontMetrics(font) : graphics.getFontMetrics(font);
+    }
+
+    public static int stringWidth(ColorFont font, String str)
+    {
+        return getFontMetrics(font.getFont()).stringWidth(str);
+    }
+
+    private static synchronized FontMetrics createFontMetrics(Font font)
+    {
+        if( graphics == null )
+            graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        return graphics.getFontMetrics(font);
+    }
+
+    /**
+     * Font metrics with cached values. Vertical metrics are stored in fields, string widths in the bounded map.
+     */
+    @SuppressWarnings ( "serial" )
+    private static class CachedFontMetrics extends FontMetrics
+    {
+        private final FontMetrics delegate;
+        private final int ascent, descent, leading, maxAscent, maxDescent, maxAdvance;
+        private final int[] widths;
+        private final Map<String, Integer> stringWidths = new ConcurrentHashMap<>();
+
+        CachedFontMetrics(FontMetrics delegate)
+        {
+            super(delegate.getFont());
+            this.delegate = delegate;
+            ascent = delegate.getAscent();
+            descent = delegate.getDescent();
+            leading = delegate.getLeading();
+            maxAscent = delegate.getMaxAscent();
+            maxDescent = delegate.getMaxDescent();
+            maxAdvance = delegate.getMaxAdvance();
+            widths = delegate.getWidths();
+        }
+
+        @Override
+        public FontRenderContext getFontRenderContext()
+        {
+            return FRC;
+        }
+
+        @Override
+        public int getAscent()
+        {
+            return ascent;
+        }
+
+        @Override
+        public int getDescent()
+        {
+            return descent;
+        }
+
+        @Override
+        public int getLeading()
+        {
+            return leading;
+        }
+
+        @Override
+        public int getMaxAscent()
+        {
+            return maxAscent;
+        }
+
+        @Override
+        public int getMaxDescent()
+        {
+            return maxDescent;
+        }
+
+        @Override
+        public int getMaxAdvance()
+        {
+            return maxAdvance;
+        }
+
+        @Override
+        public int[] getWidths()
+        {
+            return widths.clone();
+        }
+
+        @Override
+        public int charWidth(char ch)
+        {
+            return ch < 256 ? widths[ch] : delegate.charWidth(ch);
+        }
+
+        @Override
+        public int charWidth(int codePoint)
+        {
+            return codePoint >= 0 && codePoint < 256 ? widths[codePoint] : delegate.charWidth(codePoint);
+        }
+
+        @Override
+        public int charsWidth(char[] data, int off, int len)
+        {
+            return delegate.charsWidth(data, off, len);
+        }
+
+        @Override
+        public int stringWidth(String str)
+        {
+            Integer width = stringWidths.get(str);
+            if( width == null )
+            {
+                width = delegate.stringWidth(str);
+                if( stringWidths.size() >= MAX_CACHED_STRINGS )
+                    stringWidths.clear();
+                stringWidths.put(str, width);
+            }
+            return width;
+        }
+    }
+}
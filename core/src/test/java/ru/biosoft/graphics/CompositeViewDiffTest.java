@@ -0,0 +1,46 @@
+package ru.biosoft.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.awt.Color;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class CompositeViewDiffTest
+{
+    private static CompositeView build(Object[] models)
+    {
+        CompositeView root = new CompositeView();
+        for( int i = 0; i < models.length; i++ )
+        {
+            CompositeView group = new CompositeView();
+            group.setModel(models[i]);
+            for( int j = 0; j < 5; j++ )
+                group.add(new BoxView(new Pen(1, Color.red), null, j * 20, i * 20, 10, 10));
+            root.add(group);
+        }
+        return root;
+    }
+
+    @Test
+    public void testChangedSubtree() throws Exception
+    {
+        Object[] models = {"a", "b", "c"};
+        CompositeView oldView = build(models);
+        CompositeView newView = build(models);
+        assertEquals(DummyView.class.getSimpleName(), newView.toJSONIfChanged(oldView).getString("class"));
+
+        ( (CompositeView)newView.elementAt(1) ).elementAt(0).move(1, 1);
+        JSONObject diff = newView.toJSONIfChanged(oldView);
+        JSONArray children = diff.getJSONArray("children");
+        assertEquals(3, children.length());
+        assertEquals(DummyView.class.getSimpleName(), children.getJSONObject(0).getString("class"));
+        assertEquals(DummyView.class.getSimpleName(), children.getJSONObject(2).getString("class"));
+        JSONObject changed = children.getJSONObject(1);
+        assertNotNull(changed.optJSONArray("children"));
+        assertEquals(5, changed.getJSONArray("children").length());
+    }
+}
@@ -0,0 +1,116 @@
+package ru.biosoft.graphics;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+import ru.biosoft.graphics.font.ColorFont;
+
+public class DisplayListTest
+{
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+
+    /**
+     * Table with a header, rows of cells sharing the same styles, links between rows and a hidden cell.
+     */
+    private static CompositeView createTable()
+    {
+        Pen grid = new Pen(1, Color.gray);
+        Brush header = new Brush(new Color(220, 230, 250));
+        ColorFont font = new ColorFont("SansSerif", Font.PLAIN, 11, Color.black);
+
+        CompositeView table = new CompositeView();
+        CompositeView head = new CompositeView();
+        head.add(new BoxView(new Pen(2, Color.darkGray), header, 10, 10, 360, 24));
+        head.add(new TextView("Name", new Point(20, 27), View.LEFT, font));
+        table.add(head);
+        for( int row = 0; row < 6; row++ )
+        {
+            CompositeView line = new CompositeView();
+            for( int column = 0; column < 4; column++ )
+            {
+                Brush brush = ( row + column ) % 2 == 0 ? null : new Brush(Color.white);
+                line.add(new BoxView(grid, brush, 10 + column * 90, 40 + row * 35, 90, 30));
+            }
+            line.add(new EllipseView(new Pen(1, Color.red), new Brush(Color.orange), 340, 55 + row * 35, 12, 12));
+            if( row > 0 )
+                line.add(new LineView(new Pen(new BasicStroke(1.5f), Color.blue), 55, 25 + row * 35, 55, 40 + row * 35));
+            table.add(line);
+        }
+        View hidden = new BoxView(grid, new Brush(Color.black), 100, 100, 50, 50);
+        hidden.setVisible(false);
+        table.add(hidden);
+        return table;
+    }
+
+    private static BufferedImage paint(CompositeView view, DisplayList list, Rectangle clip)
+    {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try
+        {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setClip(clip);
+            if( list == null )
+                view.paint(g);
+            else
+                list.paint(g);
+        }
+        finally
+        {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Checks that replay of the list gives the same pixels as painting of the views.
+     */
+    private static void assertReplay(CompositeView view, DisplayList list)
+    {
+        for( Rectangle clip : new Rectangle[] {new Rectangle(0, 0, WIDTH, HEIGHT), new Rectangle(95, 70, 120, 80)} )
+        {
+            BufferedImage expected = paint(view, null, clip);
+            BufferedImage actual = paint(view, list, clip);
+            for( int y = 0; y < HEIGHT; y++ )
+            {
+                for( int x = 0; x < WIDTH; x++ )
+                {
+                    if( expected.getRGB(x, y) != actual.getRGB(x, y) )
+                        throw new AssertionError("Pixels differ at " + x + ", " + y + " with clip " + clip);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReplay() throws Exception
+    {
+        CompositeView table = createTable();
+        DisplayList list = new DisplayList(table);
+        assertReplay(table, list);
+
+        // changed segments are compiled again
+        CompositeView line = (CompositeView)table.elementAt(2);
+        line.elementAt(1).move(5, 3);
+        line.remove(line.elementAt(0));
+        table.insert(new PolygonView(new Pen(1, Color.black), new Brush(Color.green), new int[] {200, 260, 230}, new int[] {250, 250, 200}), 1);
+        table.elementAt(4).move(0, 10);
+        assertReplay(table, list);
+
+        table.scale(0.8, 0.9);
+        assertReplay(table, list);
+
+        table.elementAt(table.size() - 1).setVisible(true);
+        list.invalidate(table.elementAt(table.size() - 1));
+        assertReplay(table, list);
+    }
+}
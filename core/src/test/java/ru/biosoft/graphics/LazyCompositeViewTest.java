@@ -0,0 +1,42 @@
+package ru.biosoft.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class LazyCompositeViewTest
+{
+    private static CompositeView createView()
+    {
+        CompositeView view = new CompositeView();
+        for( int i = 0; i < 3; i++ )
+        {
+            CompositeView group = new CompositeView();
+            group.add(new BoxView(new Pen(2, Color.red), new Brush(Color.blue), i * 20, 0, 10, 10));
+            view.add(group);
+        }
+        return view;
+    }
+
+    @Test
+    public void testLoadAfterCompactJSON() throws Exception
+    {
+        CompositeView view = createView();
+        LazyCompositeView lazy = (LazyCompositeView)View.fromJSON(LazyCompositeView.toLazyJSON(view));
+        assertFalse(lazy.isLoaded());
+
+        JSONObject compact = lazy.toCompactJSON();
+        assertTrue(StyleDictionary.isCompact(compact));
+        assertFalse(lazy.isLoaded());
+
+        assertEquals(3, lazy.size());
+        BoxView box = (BoxView)( (CompositeView)lazy.elementAt(0) ).elementAt(0);
+        assertEquals(Color.red, box.getPen().getColor());
+        assertEquals(Color.blue, box.getBrush().getColor());
+    }
+}
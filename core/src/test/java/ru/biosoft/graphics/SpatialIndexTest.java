@@ -0,0 +1,105 @@
+package ru.biosoft.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SpatialIndexTest
+{
+    /** Areas covering corners, the middle and the whole of the tested composite */
+    private static final Rectangle[] AREAS = {new Rectangle(0, 0, 100, 100), new Rectangle(250, 250, 120, 60), new Rectangle(480, 0, 40, 600),
+            new Rectangle( -10, -10, 700, 700), new Rectangle(300, 300, 0, 0)};
+
+    /**
+     * Checks that the index returns the same children in the same order as scanning of the children list.
+     */
+    private static void assertZOrder(CompositeView view)
+    {
+        Rectangle bounds = new Rectangle();
+        for( Rectangle area : AREAS )
+        {
+            List<View> expected = new ArrayList<>();
+            for( View child : view )
+            {
+                if( View.intersectsArea(child.getBounds(bounds), area) )
+                    expected.add(child);
+            }
+
+            ViewBuffer actual = new ViewBuffer();
+            view.collectChildren(area, actual);
+            assertEquals("Views in " + area, expected.size(), actual.size());
+            for( int i = 0; i < expected.size(); i++ )
+                assertSame("View " + i + " in " + area, expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void testZOrder() throws Exception
+    {
+        Random random = new Random(7);
+        Pen pen = new Pen(1, Color.gray);
+        CompositeView view = new CompositeView();
+        view.setIndexed(true);
+        for( int i = 0; i < 300; i++ )
+            view.add(new BoxView(pen, null, random.nextInt(600), random.nextInt(600), 5 + random.nextInt(60), 5 + random.nextInt(60)));
+        assertZOrder(view);
+
+        // inserted views are placed between their neighbours
+        for( int i = 0; i < 40; i++ )
+            view.insert(new EllipseView(pen, null, random.nextInt(600), random.nextInt(600), 30, 30), random.nextInt(view.size()));
+        view.insert(new BoxView(pen, null, 290, 290, 20, 20), 0);
+        assertZOrder(view);
+
+        for( int i = 0; i < 100; i++ )
+            view.remove(view.elementAt(random.nextInt(view.size())));
+        assertZOrder(view);
+
+        for( int i = 0; i < 100; i++ )
+            view.elementAt(random.nextInt(view.size())).move(random.nextInt(200) - 100, random.nextInt(200) - 100);
+        assertZOrder(view);
+
+        view.move(15, -20);
+        assertZOrder(view);
+    }
+
+    @Test
+    public void testOrderKeys() throws Exception
+    {
+        Pen pen = new Pen(1, Color.black);
+        View first = new LineView(pen, 0, 0, 10, 0);
+        View second = new LineView(pen, 5, 0, 5, 10);
+        View third = new BoxView(pen, null, 0, 0, 10, 10);
+
+        SpatialIndex index = new SpatialIndex();
+        index.append(first, first.getBounds());
+        index.append(third, third.getBounds());
+        index.insert(second, second.getBounds(), ( index.getOrder(first) + index.getOrder(third) ) / 2);
+        assertEquals(3, index.size());
+
+        ViewBuffer result = new ViewBuffer();
+        assertEquals(3, index.search(new Rectangle(0, 0, 10, 10), result));
+        assertSame(first, result.get(0));
+        assertSame(second, result.get(1));
+        assertSame(third, result.get(2));
+
+        // horizontal line has empty bounds, but it is still found
+        result.clear();
+        index.remove(third);
+        assertEquals(2, index.search(new Rectangle(0, 0, 10, 0), result));
+        assertSame(first, result.get(0));
+        assertSame(second, result.get(1));
+
+        second.move(100, 0);
+        index.update(second, second.getBounds());
+        result.clear();
+        assertEquals(1, index.search(new Rectangle(0, 0, 10, 10), result));
+        assertSame(first, result.get(0));
+    }
+}
@@ -0,0 +1,81 @@
+package ru.biosoft.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class ViewChunkStreamTest
+{
+    private static CompositeView createView()
+    {
+        CompositeView root = new CompositeView();
+        for( int i = 0; i < 4; i++ )
+        {
+            CompositeView group = new CompositeView();
+            for( int j = 0; j < 5; j++ )
+            {
+                CompositeView node = new CompositeView();
+                node.add(new BoxView(new Pen(1, Color.red), null, i * 200 + j * 30, 0, 20, 20));
+                node.add(new BoxView(new Pen(1, Color.blue), null, i * 200 + j * 30, 20, 20, 5));
+                group.add(node);
+            }
+            root.add(group);
+        }
+        return root;
+    }
+
+    private static void assertStreamed(CompositeView view, Rectangle focus, int depth, int expectedLines) throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        assertEquals(expectedLines, ViewChunkStream.write(view, focus, depth, writer));
+        CompositeView result = new ViewChunkStream.Assembler().readAll(new BufferedReader(new StringReader(writer.toString())));
+        assertTrue(new JSONObject(view.toJSON().toString()).similar(new JSONObject(result.toJSON().toString())));
+    }
+
+    @Test
+    public void testDepth() throws Exception
+    {
+        CompositeView view = createView();
+        assertStreamed(view, null, 1, 5);
+        assertStreamed(view, null, 2, 25);
+        assertStreamed(view, null, 3, 65);
+        assertStreamed(view, new Rectangle(400, 0, 50, 50), 1, 5);
+        assertStreamed(view, new Rectangle(400, 0, 50, 50), 3, 65);
+    }
+
+    @Test
+    public void testFocusFirst() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        ViewChunkStream.write(createView(), new Rectangle(400, 0, 50, 50), 2, writer);
+        JSONObject second = new JSONObject(writer.toString().split("\n")[1]);
+        assertEquals(2, second.getInt(ViewChunkStream.INDEX));
+        JSONObject third = new JSONObject(writer.toString().split("\n")[2]);
+        assertEquals(2, third.getJSONArray(ViewChunkStream.PARENT).getInt(0));
+    }
+
+    @Test
+    public void testArrowIsNotSplit() throws Exception
+    {
+        CompositeView root = new CompositeView();
+        CompositeView group = new CompositeView();
+        group.add(new ArrowView(new Pen(1, Color.black), new Brush(Color.green), 0, 0, 120, 40, 0, ArrowView.ARROW_TIP));
+        root.add(group);
+
+        StringWriter writer = new StringWriter();
+        assertEquals(3, ViewChunkStream.write(root, null, 3, writer));
+        CompositeView result = new ViewChunkStream.Assembler().readAll(new BufferedReader(new StringReader(writer.toString())));
+        ArrowView arrow = (ArrowView)( (CompositeView)result.elementAt(0) ).elementAt(0);
+        assertNotNull(arrow.getPath());
+        assertTrue(group.elementAt(0).equals(arrow));
+    }
+}
@@ -0,0 +1,75 @@
+package ru.biosoft.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+public class ViewDeltaTest
+{
+    private static final Pen PEN = new Pen(1, Color.black);
+
+    private static CompositeView createView(int arrowEndY)
+    {
+        CompositeView view = new CompositeView();
+        ArrowView arrow = new ArrowView(PEN, null, 0, 0, 100, arrowEndY, 0, ArrowView.ARROW_TIP);
+        arrow.setModel("arrow");
+        view.add(arrow);
+        BoxView box = new BoxView(PEN, null, 200, 0, 10, 10);
+        box.setModel("box");
+        view.add(box);
+        return view;
+    }
+
+    @Test
+    public void testArrowIsReplaced() throws Exception
+    {
+        View.ModelResolver resolver = View.getModelResolver();
+        View.setModelResolver(new View.ModelResolver()
+        {
+            @Override
+            public String toString(Object model)
+            {
+                return model.toString();
+            }
+
+            @Override
+            public Object fromString(String name)
+            {
+                return name;
+            }
+        });
+        try
+        {
+            CompositeView oldView = createView(50);
+            CompositeView newView = createView(80);
+            JSONArray ops = ViewDelta.diff(oldView, newView);
+            assertEquals(1, ops.length());
+            assertEquals(ViewDelta.REPLACE, ops.getJSONObject(0).getString("op"));
+
+            View result = ViewDelta.apply(oldView, ops);
+            ArrowView arrow = (ArrowView)( (CompositeView)result ).elementAt(0);
+            assertEquals(80, arrow.getPath().ypoints[1]);
+            assertTrue(newView.equals(result));
+        }
+        finally
+        {
+            View.setModelResolver(resolver);
+        }
+    }
+
+    @Test
+    public void testMove() throws Exception
+    {
+        CompositeView oldView = createView(50);
+        CompositeView newView = createView(50);
+        newView.elementAt(1).move(5, 0);
+        JSONArray ops = ViewDelta.diff(oldView, newView);
+        assertEquals(1, ops.length());
+        assertEquals(ViewDelta.MOVE, ops.getJSONObject(0).getString("op"));
+        assertTrue(newView.equals(ViewDelta.apply(createView(50), ops)));
+    }
+}
@@ -0,0 +1,52 @@
+package ru.biosoft.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.io.StringReader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class ViewJSONReaderTest
+{
+    private static CompositeView createView()
+    {
+        CompositeView view = new CompositeView();
+        for( int i = 0; i < 10; i++ )
+            view.add(new BoxView(new Pen(1, Color.red), new Brush(Color.blue), i * 20, 0, 10, 10));
+        return view;
+    }
+
+    @Test
+    public void testCompactText() throws Exception
+    {
+        CompositeView view = createView();
+        String text = view.toCompactJSON().toString();
+        assertTrue(text.startsWith("{\"" + StyleDictionary.STYLES + "\""));
+
+        View result = ViewJSONReader.read(new StringReader(text));
+        assertTrue(new JSONObject(view.toJSON().toString()).similar(new JSONObject(result.toJSON().toString())));
+        assertEquals(Color.red, ( (BoxView)( (CompositeView)result ).elementAt(0) ).getPen().getColor());
+    }
+
+    @Test
+    public void testStylesAfterViews() throws Exception
+    {
+        JSONObject compact = createView().toCompactJSON();
+        String text = "{\"children\":" + compact.getJSONArray("children") + ",\"class\":\"CompositeView\",\"styles\":"
+                + compact.getJSONArray(StyleDictionary.STYLES) + "}";
+        try
+        {
+            ViewJSONReader.read(new StringReader(text));
+            fail("Style index before styles is accepted");
+        }
+        catch( JSONException e )
+        {
+        }
+        assertEquals(10, ( (CompositeView)View.fromJSON(new JSONObject(text)) ).size());
+    }
+}
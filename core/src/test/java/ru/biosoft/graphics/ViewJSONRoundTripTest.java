@@ -0,0 +1,153 @@
+package ru.biosoft.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.geom.GeneralPath;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import ru.biosoft.graphics.font.ColorFont;
+
+/**
+ * Every view class should be restored from its JSON and binary representation.
+ */
+public class ViewJSONRoundTripTest
+{
+    private static final Pen PEN = new Pen(2, Color.blue);
+    private static final Brush BRUSH = new Brush(Color.yellow);
+    private static final ColorFont FONT = new ColorFont("Arial", Font.PLAIN, 12, Color.black);
+
+    private static List<View> createViews() throws Exception
+    {
+        List<View> views = new ArrayList<>();
+        views.add(new ArrowView(PEN, BRUSH, 0, 0, 100, 50, ArrowView.ARROW_TIP, ArrowView.DIAMOND_TIP));
+        views.add(new BoxView(PEN, BRUSH, 10, 20, 30, 40));
+        views.add(new ComplexTextView("text <b>bold</b>", new Point(5, 5), View.LEFT | View.BASELINE, FONT, new HashMap<>(),
+                ComplexTextView.TEXT_ALIGN_LEFT, 100, null));
+        views.add(new DummyView(null, true));
+        views.add(new EllipseView(PEN, BRUSH, 50, 50, 20, 10));
+        views.add(new FigureView(PEN, BRUSH, new int[] {0, 10, 20, 30, 40, 50}, new int[] {0, 10, 0, 10, 0, 10}, new int[] {0, 0,
+                1, 1, 0, 0}));
+        views.add(new HtmlView("<b>html</b>", FONT, new Point(10, 10)));
+        views.add(new LineView(PEN, 0, 0, 10, 10));
+
+        GeneralPath path = new GeneralPath();
+        path.moveTo(0, 0);
+        path.lineTo(10, 0);
+        path.quadTo(20, 0, 20, 10);
+        path.curveTo(20, 20, 10, 30, 0, 30);
+        views.add(new PathView(PEN, path));
+
+        views.add(new PolygonView(PEN, BRUSH, new int[] {0, 10, 5}, new int[] {0, 0, 10}));
+        views.add(new PolylineView(PEN, new int[] {0, 10, 20}, new int[] {0, 10, 0}));
+        views.add(new Ruler(0, new Point(0, 100), 1, 0, 1000, new RulerOptions(FONT), 1, null));
+        views.add(new TextView("text", new Point(0, 0), View.LEFT | View.BASELINE, FONT));
+
+        File file = File.createTempFile("view", ".png");
+        file.deleteOnExit();
+        ImageIO.write(new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB), "png", file);
+        ImageView imageView = new ImageView(ImageIO.read(file), 10, 20);
+        imageView.setPath(file.getPath());
+        views.add(imageView);
+
+        CompositeView composite = new CompositeView();
+        composite.add(new BoxView(PEN, BRUSH, 0, 0, 10, 10));
+        composite.add(new PathView(PEN, path));
+        composite.add(new ArrowView(PEN, BRUSH, 0, 0, 30, 80, 0, ArrowView.ARROW_TIP));
+        views.add(composite);
+        views.add(LazyCompositeView.fromJSON(LazyCompositeView.toLazyJSON(composite)));
+        return views;
+    }
+
+    private static void assertRestored(View view, View restored) throws Exception
+    {
+        String name = view.getClass().getSimpleName();
+        assertNotNull(name + " is not restored", restored);
+        assertEquals(name, view.getClass(), restored.getClass());
+        if( ! ( view instanceof DummyView ) )
+            assertEquals(name, view.getBounds(), restored.getBounds());
+        assertTrue(name + " JSON differs", parse(view).similar(parse(restored)));
+        assertTrue(name + " is not equal", view.equals(restored));
+    }
+
+    /** JSON of the view with numbers as they are read from text */
+    private static JSONObject parse(View view) throws Exception
+    {
+        return new JSONObject(view.toJSON().toString());
+    }
+
+    @Test
+    public void testJSON() throws Exception
+    {
+        for( View view : createViews() )
+            assertRestored(view, View.fromJSON(parse(view)));
+    }
+
+    @Test
+    public void testBinary() throws Exception
+    {
+        for( View view : createViews() )
+            assertRestored(view, ViewBinaryCodec.fromBytes(ViewBinaryCodec.toBytes(view)));
+    }
+
+    @Test
+    public void testArrowPath() throws Exception
+    {
+        SimplePath path = new SimplePath(new int[] {0, 50, 100, 100}, new int[] {0, 0, 50, 100}, new int[] {0, 1, 0, 0}, 4);
+        ArrowView[] arrows = {new ArrowView(PEN, BRUSH, path, ArrowView.ARROW_TIP, 0),
+                new ArrowView(PEN, BRUSH, 0, 0, 30, 40, 0, ArrowView.ARROW_TIP)};
+        for( ArrowView arrow : arrows )
+        {
+            CompositeView parent = new CompositeView();
+            parent.add(arrow);
+            StringWriter writer = new StringWriter();
+            parent.writeJSON(writer);
+
+            ArrowView[] restored = {(ArrowView)View.fromJSON(parse(arrow)),
+                    (ArrowView)ViewJSONReader.read(new StringReader(arrow.toJSON().toString())),
+                    (ArrowView)( (CompositeView)ViewJSONReader.read(new StringReader(writer.toString())) ).elementAt(0)};
+            for( ArrowView r : restored )
+            {
+                assertNotNull(r.getPath());
+                assertEquals(arrow.getPathOffset(), r.getPathOffset());
+                assertTrue(arrow.equals(r));
+                assertEquals(arrow.contentHash(), r.contentHash());
+            }
+        }
+    }
+
+    @Test
+    public void testDeltaReplacesPath() throws Exception
+    {
+        GeneralPath path = new GeneralPath();
+        path.moveTo(0, 0);
+        path.lineTo(10, 10);
+        CompositeView oldView = new CompositeView();
+        oldView.add(new BoxView(PEN, BRUSH, 0, 0, 10, 10));
+        CompositeView newView = new CompositeView();
+        newView.add(new BoxView(PEN, BRUSH, 0, 0, 10, 10));
+        newView.add(new PathView(PEN, path));
+
+        JSONArray ops = ViewDelta.diff(oldView, newView);
+        View result = ViewDelta.apply(oldView, ops);
+        assertEquals(2, ( (CompositeView)result ).size());
+        assertEquals(PathView.class, ( (CompositeView)result ).elementAt(1).getClass());
+    }
+}
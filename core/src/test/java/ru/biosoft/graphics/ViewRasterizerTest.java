@@ -0,0 +1,107 @@
+package ru.biosoft.graphics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ViewRasterizerTest
+{
+    /**
+     * Grid of indexed clusters, each cluster is a star of lines with a polygon in the middle.
+     */
+    private static CompositeView createDiagram()
+    {
+        CompositeView diagram = new CompositeView();
+        diagram.setIndexed(true);
+        for( int row = 0; row < 6; row++ )
+        {
+            for( int column = 0; column < 5; column++ )
+            {
+                int cx = 60 + column * 110, cy = 60 + row * 110;
+                CompositeView cluster = new CompositeView();
+                cluster.setIndexed(true);
+                for( int i = 0; i < 12; i++ )
+                {
+                    double angle = Math.PI * i / 6;
+                    cluster.add(new LineView(new Pen(1 + i % 3, Color.darkGray), cx, cy, (float) ( cx + 45 * Math.cos(angle) ),
+                            (float) ( cy + 45 * Math.sin(angle) )));
+                }
+                cluster.add(new PolygonView(new Pen(1, Color.black), new Brush(new Color(row * 40, column * 50, 200)),
+                        new int[] {cx - 15, cx + 15, cx}, new int[] {cy + 10, cy + 10, cy - 15}));
+                diagram.add(cluster);
+            }
+        }
+        return diagram;
+    }
+
+    private static void assertSameImage(BufferedImage expected, BufferedImage actual)
+    {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for( int y = 0; y < expected.getHeight(); y++ )
+        {
+            for( int x = 0; x < expected.getWidth(); x++ )
+            {
+                if( expected.getRGB(x, y) != actual.getRGB(x, y) )
+                    throw new AssertionError("Pixels differ at " + x + ", " + y);
+            }
+        }
+    }
+
+    /**
+     * Paints the view in the current thread as the rasterizer with default settings does.
+     */
+    private static BufferedImage paintDirectly(View view, double scale)
+    {
+        Rectangle bounds = view.getBounds();
+        BufferedImage image = new BufferedImage((int)Math.ceil(bounds.width * scale), (int)Math.ceil(bounds.height * scale),
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try
+        {
+            ViewRasterizer settings = new ViewRasterizer();
+            g.setRenderingHints(settings.getRenderingHints());
+            g.setColor(settings.getBackground());
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g.scale(scale, scale);
+            g.translate( -bounds.x, -bounds.y);
+            view.paint(g);
+        }
+        finally
+        {
+            g.dispose();
+        }
+        return image;
+    }
+
+    @Test
+    public void testBands() throws Exception
+    {
+        CompositeView diagram = createDiagram();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try
+        {
+            ViewRasterizer rasterizer = new ViewRasterizer(pool);
+            rasterizer.setBandHeight(37);
+            BufferedImage image = rasterizer.render(diagram, 2);
+            assertSameImage(paintDirectly(diagram, 2), image);
+
+            // indices of the clusters are stale after the move, they are rebuilt before the bands are painted
+            for( View cluster : diagram )
+                ( (CompositeView)cluster ).elementAt(0).move(3, 0);
+            diagram.elementAt(7).move(0, 5);
+            image = rasterizer.render(diagram, 2);
+            assertSameImage(paintDirectly(diagram, 2), image);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ru.biosoft.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class VirtualCompositeViewTest
+{
+    /** Row of 8x8 boxes with the step 10 */
+    private static class RowProvider implements VirtualCompositeView.ViewProvider
+    {
+        private final int count;
+
+        RowProvider(int count)
+        {
+            this.count = count;
+        }
+
+        @Override
+        public Rectangle getBounds()
+        {
+            return new Rectangle(0, 0, count * 10 - 2, 8);
+        }
+
+        @Override
+        public List<?> getItems(Rectangle area)
+        {
+            List<Integer> result = new ArrayList<>();
+            for( int i = Math.max(0, area.x / 10 - 1); i < count && i * 10 <= area.x + area.width; i++ )
+            {
+                if( new Rectangle(i * 10, 0, 8, 8).intersects(area) )
+                    result.add(i);
+            }
+            return result;
+        }
+
+        @Override
+        public View createView(Object item)
+        {
+            int i = (Integer)item;
+            return new BoxView(new Pen(1, Color.red), null, i * 10, 0, 8, 8);
+        }
+    }
+
+    @Test
+    public void testLayout() throws Exception
+    {
+        VirtualCompositeView track = new VirtualCompositeView(new RowProvider(1000));
+        CompositeView root = new CompositeView();
+        root.add(new BoxView(new Pen(1, Color.black), null, 0, 0, 100, 50));
+        root.add(track, CompositeView.Y_BT);
+        assertEquals(new Rectangle(0, 50, 9998, 8), track.getBounds());
+
+        ViewBuffer views = track.getViews(new Rectangle(0, 50, 25, 5));
+        assertEquals(3, views.size());
+        assertEquals(new Rectangle(10, 50, 8, 8), views.get(1).getBounds());
+    }
+
+    @Test
+    public void testMove() throws Exception
+    {
+        VirtualCompositeView track = new VirtualCompositeView(new RowProvider(1000));
+        View cached = track.getViews(new Rectangle(0, 0, 5, 5)).get(0);
+        track.move(100, 20);
+        assertEquals(new Rectangle(100, 20, 9998, 8), track.getBounds());
+        assertEquals(new Rectangle(100, 20, 8, 8), cached.getBounds());
+
+        ViewBuffer views = track.getViews(new Rectangle(100, 20, 15, 5));
+        assertEquals(2, views.size());
+        assertSame(cached, views.get(0));
+        assertEquals(new Rectangle(110, 20, 8, 8), views.get(1).getBounds());
+        assertEquals(100, track.toJSON().getJSONArray("children").getJSONObject(0).getInt("x"));
+    }
+
+    @Test
+    public void testScale() throws Exception
+    {
+        VirtualCompositeView track = new VirtualCompositeView(new RowProvider(1000));
+        BoxView cached = (BoxView)track.getViews(new Rectangle(0, 0, 5, 5)).get(0);
+        track.scale(2, 2);
+        assertEquals(2, cached.getPen().getWidth(), 0);
+        BoxView created = (BoxView)track.getViews(new Rectangle(5000, 0, 5, 5)).get(0);
+        assertEquals(2, created.getPen().getWidth(), 0);
+    }
+}
@@ -93,7 +93,10 @@ public class PenEditor extends StrokeTextEditor
     @Override
     protected void buttonPressed()
     {
+    	// the pen can be shared, so its copy is edited
     	Pen pen = (Pen) getValue();
+    	if( pen != null )
+    	    pen = pen.clone();
 		PropertyInspector inspector = new PropertyInspector();
         inspector.explore( pen );
         inspector.setPreferredSize( new Dimension( 480, 200 ) );
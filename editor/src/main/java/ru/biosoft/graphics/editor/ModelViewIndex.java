@@ -0,0 +1,359 @@
+package ru.biosoft.graphics.editor;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ru.biosoft.graphics.CompositeView;
+import ru.biosoft.graphics.View;
+import ru.biosoft.graphics.VirtualCompositeView;
+
+/**
+ * Maps models to the views representing them in the view tree.
+ *
+ * Index is built once for the root view and then is updated incrementally
+ * by {@link CompositeView.StructureListener} events, so the lookup cost does not depend on the tree size.
+ * Models are compared by identity, one model can be represented by several views
+ * and one view can occur in several places of the tree.
+ *
+ * Lookup result is the same as of the tree traversal which collects active views with the given model
+ * and does not descend into found views. Changes of the children list made bypassing
+ * {@link CompositeView} methods and model changes of views already in the tree are not tracked,
+ * {@link #setRoot(CompositeView)} should be called again in this case.
+ * Children of {@link VirtualCompositeView} are created on demand, so only the views already created
+ * by it are found, see {@link VirtualCompositeView#getCachedViews(Object)}.
+ */
+public class ModelViewIndex implements CompositeView.StructureListener
+{
+    /**
+     * Listener which also receives bounds of the changed view before the change.
+     */
+    public static interface Listener extends CompositeView.StructureListener
+    {
+        /**
+         * @param oldBounds bounds of the view before the change or <code>null</code> if they are unknown
+         */
+        public void viewChanged(CompositeView parent, View view, Rectangle oldBounds);
+
+        /**
+         * Called once when all children of the composite were moved or scaled together.
+         *
+         * @param oldBounds union of the children bounds before the change or <code>null</code> if they are unknown
+         */
+        public default void childrenChanged(CompositeView parent, Rectangle oldBounds)
+        {
+            childrenChanged(parent);
+        }
+    }
+
+    /** Occurrence of the view in the tree */
+    private static class Entry
+    {
+        final View view;
+        final Object model;
+        final Entry parent;
+        /** Nearest ancestor with the same model */
+        final Entry sameModel;
+        /** Entries of child views, for composite views only */
+        List<Entry> children;
+        /** Bounds of the view when it was added or changed last time */
+        Rectangle bounds;
+
+        Entry(View view, Object model, Entry parent, Entry sameModel)
+        {
+            this.view = view;
+            this.model = model;
+            this.parent = parent;
+            this.sameModel = sameModel;
+            bounds = view.getBounds();
+        }
+    }
+
+    private CompositeView root;
+    private final Map<Object, List<Entry>> models = new IdentityHashMap<>();
+    private final Map<CompositeView, List<Entry>> composites = new IdentityHashMap<>();
+    /** Entries of every view, used to find bounds of the changed view */
+    private final Map<View, List<Entry>> views = new IdentityHashMap<>();
+    /** Indexed virtual composite views, their children are looked up in their caches */
+    private final List<VirtualCompositeView> virtualViews = new ArrayList<>();
+    private final CompositeView.StructureListener listener;
+
+    public ModelViewIndex()
+    {
+        this(null);
+    }
+
+    /**
+     * @param listener listener which will be notified about all structure changes in the indexed tree
+     */
+    public ModelViewIndex(CompositeView.StructureListener listener)
+    {
+        this.listener = listener;
+    }
+
+    public CompositeView getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Rebuilds the index for the new root view.
+     */
+    public void setRoot(CompositeView root)
+    {
+        clear();
+        this.root = root;
+        if( root != null )
+            add(root, null);
+    }
+
+    public void clear()
+    {
+        for( CompositeView cv : composites.keySet() )
+            cv.removeStructureListener(this);
+        composites.clear();
+        models.clear();
+        views.clear();
+        virtualViews.clear();
+        root = null;
+    }
+
+    /**
+     * Returns active views with the specified model which have no active ancestor with the same model.
+     */
+    public View[] getViews(Object model)
+    {
+        List<Entry> entries = models.get(model);
+        if( entries == null && virtualViews.isEmpty() )
+            return new View[0];
+
+        List<View> result = new ArrayList<>(entries == null ? 1 : entries.size());
+        if( entries != null )
+        {
+            for( Entry entry : entries )
+            {
+                if( entry.view.isActive() && entry.view.getModel() == model && !hasActiveAncestor(entry) )
+                    result.add(entry.view);
+            }
+        }
+        for( VirtualCompositeView vcv : virtualViews )
+        {
+            for( View view : vcv.getCachedViews(model) )
+            {
+                if( view.isActive() )
+                    result.add(view);
+            }
+        }
+        return result.toArray(new View[result.size()]);
+    }
+
+    private static boolean hasActiveAncestor(Entry entry)
+    {
+        for( Entry e = entry.sameModel; e != null; e = e.sameModel )
+        {
+            if( e.view.isActive() )
+                return true;
+        }
+        return false;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Index maintenance
+    //
+
+    @Override
+    public void viewAdded(CompositeView parent, View view)
+    {
+        List<Entry> parents = composites.get(parent);
+        if( parents == null )
+            return;
+        for( Entry p : parents.toArray(new Entry[parents.size()]) )
+            p.children.add(add(view, p));
+        if( listener != null )
+            listener.viewAdded(parent, view);
+    }
+
+    @Override
+    public void viewRemoved(CompositeView parent, View view)
+    {
+        List<Entry> parents = composites.get(parent);
+        if( parents == null )
+            return;
+        for( Entry p : parents.toArray(new Entry[parents.size()]) )
+        {
+            for( int i = p.children.size() - 1; i >= 0; i-- )
+            {
+                if( p.children.get(i).view == view )
+                {
+                    remove(p.children.remove(i));
+                    break;
+                }
+            }
+        }
+        if( listener != null )
+            listener.viewRemoved(parent, view);
+    }
+
+    @Override
+    public void viewChanged(CompositeView parent, View view)
+    {
+        if( !composites.containsKey(parent) )
+            return;
+
+        Rectangle oldBounds = updateBounds(parent, view);
+        if( listener instanceof Listener )
+            ( (Listener)listener ).viewChanged(parent, view, oldBounds);
+        else if( listener != null )
+            listener.viewChanged(parent, view);
+    }
+
+    @Override
+    public void childrenChanged(CompositeView parent)
+    {
+        if( !composites.containsKey(parent) )
+            return;
+
+        Rectangle oldBounds = null;
+        boolean known = true;
+        for( View view : parent )
+        {
+            Rectangle bounds = updateBounds(parent, view);
+            if( bounds == null )
+                known = false;
+            else if( oldBounds == null )
+                oldBounds = new Rectangle(bounds);
+            else
+                oldBounds.add(bounds);
+        }
+
+        if( listener instanceof Listener )
+            ( (Listener)listener ).childrenChanged(parent, known ? oldBounds : null);
+        else if( listener != null )
+            listener.childrenChanged(parent);
+    }
+
+    /**
+     * Stores new bounds of the view in its entries under the parent.
+     *
+     * @return bounds of the view before the change or <code>null</code> if they are unknown
+     */
+    private Rectangle updateBounds(CompositeView parent, View view)
+    {
+        Rectangle oldBounds = null;
+        List<Entry> entries = views.get(view);
+        if( entries != null )
+        {
+            for( Entry e : entries )
+            {
+                if( e.parent != null && e.parent.view == parent )
+                {
+                    if( oldBounds == null )
+                        oldBounds = e.bounds;
+                    e.bounds = view.getBounds();
+                }
+            }
+        }
+        return oldBounds;
+    }
+
+    private Entry add(View view, Entry parent)
+    {
+        Object model = view.getModel();
+        List<Entry> entries = models.get(model);
+        if( entries == null )
+        {
+            entries = new ArrayList<>(1);
+            models.put(model, entries);
+        }
+
+        Entry sameModel = null;
+        // there is no need to look for ancestor if this model was not met yet
+        if( !entries.isEmpty() )
+        {
+            for( Entry e = parent; e != null; e = e.parent )
+            {
+                if( e.model == model )
+                {
+                    sameModel = e;
+                    break;
+                }
+            }
+        }
+
+        Entry entry = new Entry(view, model, parent, sameModel);
+        entries.add(entry);
+        views.computeIfAbsent(view, v -> new ArrayList<>(1)).add(entry);
+
+        if( view instanceof CompositeView )
+        {
+            CompositeView cv = (CompositeView)view;
+            List<Entry> occurrences = composites.get(cv);
+            if( occurrences == null )
+            {
+                occurrences = new ArrayList<>(1);
+                composites.put(cv, occurrences);
+                cv.addStructureListener(this);
+                if( cv instanceof VirtualCompositeView )
+                    virtualViews.add((VirtualCompositeView)cv);
+            }
+            occurrences.add(entry);
+
+            entry.children = new ArrayList<>(cv.size());
+            for( View child : cv )
+                entry.children.add(add(child, entry));
+        }
+        return entry;
+    }
+
+    private void remove(Entry entry)
+    {
+        if( entry.children != null )
+        {
+            for( Entry child : entry.children )
+                remove(child);
+
+            CompositeView cv = (CompositeView)entry.view;
+            List<Entry> occurrences = composites.get(cv);
+            if( occurrences != null )
+            {
+                removeEntry(occurrences, entry);
+                if( occurrences.isEmpty() )
+                {
+                    composites.remove(cv);
+                    cv.removeStructureListener(this);
+                    virtualViews.remove(cv);
+                }
+            }
+        }
+
+        List<Entry> entries = models.get(entry.model);
+        if( entries != null )
+        {
+            removeEntry(entries, entry);
+            if( entries.isEmpty() )
+                models.remove(entry.model);
+        }
+
+        entries = views.get(entry.view);
+        if( entries != null )
+        {
+            removeEntry(entries, entry);
+            if( entries.isEmpty() )
+                views.remove(entry.view);
+        }
+    }
+
+    private static void removeEntry(List<Entry> entries, Entry entry)
+    {
+        for( int i = entries.size() - 1; i >= 0; i-- )
+        {
+            if( entries.get(i) == entry )
+            {
+                entries.remove(i);
+                return;
+            }
+        }
+    }
+}
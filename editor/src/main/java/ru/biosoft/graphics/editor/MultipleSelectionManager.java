@@ -40,7 +40,7 @@ public class MultipleSelectionManager extends SelectionManager
         {
             selectedViews.remove(view);
             selectedModels.remove(view.getModel());
-            viewPane.repaint();
+            viewPane.repaintLayers();
         }
         else if(modifier)
         {
@@ -54,7 +54,7 @@ public class RectangleSelectionManager extends ResizableSelectionManager
             {
                 clearSelection();
 
-                viewPane.repaint();
+                viewPane.repaintLayers();
                 startSelection = true;
                 if( e.getViewPane() instanceof ViewEditorPane )
                     ( (ViewEditorPane)e.getViewPane() ).setSelectionEnabled(false);
@@ -206,6 +206,6 @@ public class SelectionManager extends ViewPaneAdapter implements ViewPaneLayer
             return;
 
         selectView(view, true);
-        viewPane.repaint();
+        viewPane.repaintLayers();
     }
 }
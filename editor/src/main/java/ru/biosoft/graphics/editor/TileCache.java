@@ -0,0 +1,234 @@
+package ru.biosoft.graphics.editor;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ru.biosoft.graphics.View;
+
+/**
+ * Cache of rendered fragments of the view.
+ *
+ * Device space is split into square tiles of fixed size, every rendered tile is kept
+ * as an image keyed by scale and tile coordinates. When the cache exceeds its memory budget
+ * the least recently used tiles are dropped. Tiles which intersect the changed region of the view
+ * should be invalidated by {@link #invalidate(Rectangle)}.
+ */
+public class TileCache
+{
+    public static final int DEFAULT_TILE_SIZE = 256;
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    /** Margin (in view coordinates) added to damaged regions to cover antialiasing and wide pens. */
+    protected static final int DAMAGE_MARGIN = 4;
+
+    private static class TileKey
+    {
+        final double scaleX, scaleY;
+        final int x, y;
+
+        TileKey(double scaleX, double scaleY, int x, int y)
+        {
+            this.scaleX = scaleX;
+            this.scaleY = scaleY;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            long bits = Double.doubleToLongBits(scaleX) * 31 + Double.doubleToLongBits(scaleY);
+            return (int) ( bits ^ ( bits >>> 32 ) ) * 961 + x * 31 + y;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if( ! ( obj instanceof TileKey ) )
+                return false;
+            TileKey k = (TileKey)obj;
+            return x == k.x && y == k.y && scaleX == k.scaleX && scaleY == k.scaleY;
+        }
+    }
+
+    private final int tileSize;
+    private long memoryBudget;
+    private long memoryUsed = 0;
+    private final Point offset = new Point();
+    private final LinkedHashMap<TileKey, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true);
+
+    public TileCache()
+    {
+        this(DEFAULT_TILE_SIZE, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param tileSize size of tile side in pixels
+     * @param memoryBudget maximal size of cached images in bytes
+     */
+    public TileCache(int tileSize, long memoryBudget)
+    {
+        if( tileSize <= 0 )
+            throw new IllegalArgumentException("Tile size should be positive: " + tileSize);
+        this.tileSize = tileSize;
+        this.memoryBudget = memoryBudget;
+    }
+
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    public long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget)
+    {
+        this.memoryBudget = memoryBudget;
+        evict();
+    }
+
+    public long getMemoryUsed()
+    {
+        return memoryUsed;
+    }
+
+    public int getTileCount()
+    {
+        return tiles.size();
+    }
+
+    /**
+     * Drops all tiles.
+     */
+    public void clear()
+    {
+        tiles.clear();
+        memoryUsed = 0;
+    }
+
+    /**
+     * Drops tiles of all scales which intersect the specified region.
+     *
+     * @param area region in view coordinates
+     */
+    public void invalidate(Rectangle area)
+    {
+        if( area == null )
+        {
+            clear();
+            return;
+        }
+
+        double x1 = area.getMinX() - DAMAGE_MARGIN - offset.x;
+        double y1 = area.getMinY() - DAMAGE_MARGIN - offset.y;
+        double x2 = area.getMaxX() + DAMAGE_MARGIN - offset.x;
+        double y2 = area.getMaxY() + DAMAGE_MARGIN - offset.y;
+        for( Iterator<Map.Entry<TileKey, BufferedImage>> it = tiles.entrySet().iterator(); it.hasNext(); )
+        {
+            Map.Entry<TileKey, BufferedImage> entry = it.next();
+            TileKey key = entry.getKey();
+            int tx1 = (int)Math.floor(x1 * key.scaleX / tileSize);
+            int ty1 = (int)Math.floor(y1 * key.scaleY / tileSize);
+            int tx2 = (int)Math.floor(x2 * key.scaleX / tileSize);
+            int ty2 = (int)Math.floor(y2 * key.scaleY / tileSize);
+            if( key.x >= tx1 && key.x <= tx2 && key.y >= ty1 && key.y <= ty2 )
+            {
+                memoryUsed -= imageSize(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Paints the view using cached tiles, missing tiles are rendered and put into the cache.
+     *
+     * @param g graphics in device coordinates
+     * @param view view to paint
+     * @param at scale transform from view to device coordinates
+     * @param offset view coordinates of the device origin
+     */
+    public void paint(Graphics2D g, View view, AffineTransform at, Point offset)
+    {
+        if( !this.offset.equals(offset) )
+        {
+            clear();
+            this.offset.setLocation(offset);
+        }
+
+        Rectangle clip = g.getClipBounds();
+        if( clip == null )
+        {
+            Rectangle bounds = view.getBounds();
+            clip = at.createTransformedShape(new Rectangle(bounds.x - offset.x, bounds.y - offset.y, bounds.width, bounds.height))
+                    .getBounds();
+        }
+
+        double scaleX = at.getScaleX();
+        double scaleY = at.getScaleY();
+        int tx1 = Math.floorDiv(clip.x, tileSize);
+        int ty1 = Math.floorDiv(clip.y, tileSize);
+        int tx2 = Math.floorDiv(clip.x + clip.width - 1, tileSize);
+        int ty2 = Math.floorDiv(clip.y + clip.height - 1, tileSize);
+        for( int ty = ty1; ty <= ty2; ty++ )
+        {
+            for( int tx = tx1; tx <= tx2; tx++ )
+            {
+                TileKey key = new TileKey(scaleX, scaleY, tx, ty);
+                BufferedImage tile = tiles.get(key);
+                if( tile == null )
+                {
+                    tile = renderTile(g, view, at, offset, tx, ty);
+                    tiles.put(key, tile);
+                    memoryUsed += imageSize(tile);
+                }
+                g.drawImage(tile, tx * tileSize, ty * tileSize, null);
+            }
+        }
+        evict();
+    }
+
+    protected BufferedImage renderTile(Graphics2D g, View view, AffineTransform at, Point offset, int tx, int ty)
+    {
+        BufferedImage tile = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D tg = tile.createGraphics();
+        try
+        {
+            tg.setRenderingHints(g.getRenderingHints());
+            tg.setClip(0, 0, tileSize, tileSize);
+            tg.translate( -tx * tileSize, -ty * tileSize);
+            tg.transform(at);
+            tg.translate( -offset.x, -offset.y);
+            view.paint(tg);
+        }
+        finally
+        {
+            tg.dispose();
+        }
+        return tile;
+    }
+
+    private void evict()
+    {
+        // tiles painted just now are the most recent ones, so they are removed last
+        Iterator<BufferedImage> it = tiles.values().iterator();
+        while( memoryUsed > memoryBudget && it.hasNext() )
+        {
+            memoryUsed -= imageSize(it.next());
+            it.remove();
+        }
+    }
+
+    private static long imageSize(BufferedImage image)
+    {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+}
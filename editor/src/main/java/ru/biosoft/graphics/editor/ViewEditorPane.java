@@ -609,9 +609,11 @@ public class ViewEditorPane extends ViewPane implements Transactable, Transactio
 
                     changeSize(offset, new Dimension(rect.width - initialRect.width, rect.height - initialRect.height));
 
-                    // cleanup
+                    // cleanup, selection is removed from the tiles by the view index
                     cView.remove(selection);
-                    repaint();
+                    Rectangle area = new Rectangle(initialRect);
+                    area.add(rect);
+                    repaintView(area);
 
                     initialRect = null;
                     initialRect2 = null;
@@ -626,10 +628,21 @@ public class ViewEditorPane extends ViewPane implements Transactable, Transactio
                 {
                     Dimension offset = new Dimension(prevCorrectedPoint.x - startPoint.x, prevCorrectedPoint.y - startPoint.y);
 
+                    Rectangle area = null;
+                    if( selection != null )
+                    {
+                        // area of the moved views before and after the move
+                        area = selection.getBounds();
+                        area.add(new Rectangle(area.x - offset.width, area.y - offset.height, area.width, area.height));
+                    }
+
                     move(offset, helper.drawOnFly());
 
                     cView.remove(selection);
-                    repaint();
+                    if( area != null )
+                        repaintView(area);
+                    else
+                        repaintLayers();
 
                     startPoint = null;
                     prevPoint = null;
@@ -645,7 +658,7 @@ public class ViewEditorPane extends ViewPane implements Transactable, Transactio
             else
             {
                 cView.remove(selection);
-                repaint();
+                repaintLayers();
 
                 initialRect = null;
                 initialRect2 = null;
@@ -688,7 +701,8 @@ public class ViewEditorPane extends ViewPane implements Transactable, Transactio
                 selection.add(selectionBox);
                 cView.insert(selection, cView.size());
 
-                repaint();
+                // tiles under the selection are invalidated by the view index
+                repaintLayers();
                 initiated = true;
             }
             else if( moving )
@@ -775,7 +789,7 @@ public class ViewEditorPane extends ViewPane implements Transactable, Transactio
                 }
 
                 prevCorrectedPoint = pt;
-                repaint();
+                repaintLayers();
                 initiated = true;
             }
         }
@@ -14,7 +14,6 @@ import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelListener;
 import java.awt.geom.AffineTransform;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.Vector;
 
@@ -73,6 +72,7 @@ public class ViewPane extends JPanel implements MouseListener, MouseMotionListen
         initUIComponents();
         // set up empty composite view
         cView = new CompositeView();
+        modelIndex.setRoot(cView);
     }
 
     protected void initUIComponents()
@@ -126,6 +126,9 @@ public class ViewPane extends JPanel implements MouseListener, MouseMotionListen
     public void setView(CompositeView value, Point offset)
     {
         cView = value;
+        modelIndex.setRoot(value);
+        if( tileCache != null )
+            tileCache.clear();
         if( value != null )
         {
             Rectangle rect = (Rectangle)cView.getBounds().clone();
@@ -262,15 +265,74 @@ public class ViewPane extends JPanel implements MouseListener, MouseMotionListen
         allignToY = y;
     }
 
+    /**
+     * Repaints the pane. As the view could be changed, all cached tiles are dropped.
+     */
     @Override
     public void repaint()
     {
+        if( tileCache != null )
+            tileCache.clear();
+
         super.repaint();
 
         if( mPanel != null )
             mPanel.repaint();
     }
 
+    /**
+     * Repaints selection and additional layers, the view itself is supposed to be unchanged.
+     */
+    public void repaintLayers()
+    {
+        if( mPanel != null )
+            mPanel.repaint();
+    }
+
+    /**
+     * Repaints the changed region of the view.
+     *
+     * @param area region in view coordinates
+     */
+    public void repaintView(Rectangle area)
+    {
+        if( tileCache != null )
+            tileCache.invalidate(area);
+
+        if( mPanel != null )
+        {
+            Rectangle r = at.createTransformedShape(new Rectangle(area.x - offset.x, area.y - offset.y, area.width, area.height)).getBounds();
+            r.grow(TileCache.DAMAGE_MARGIN, TileCache.DAMAGE_MARGIN);
+            mPanel.repaint(r);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tile cache
+    //
+
+    /** Cache of rendered view tiles, <code>null</code> if view is painted directly */
+    protected TileCache tileCache = null;
+
+    public TileCache getTileCache()
+    {
+        return tileCache;
+    }
+
+    /**
+     * Sets up cache of rendered tiles. With the cache scrolling of large views mostly copies
+     * ready images instead of painting all views again. Changes of the view should be reported
+     * by {@link #repaint()} or {@link #repaintView(Rectangle)}, views added, removed or moved via
+     * {@link CompositeView} methods are tracked automatically.
+     *
+     * @param tileCache cache or <code>null</code> to paint the view directly
+     */
+    public void setTileCache(TileCache tileCache)
+    {
+        this.tileCache = tileCache;
+        repaint();
+    }
+
     public void scale(double sx, double sy)
     {
         setToScale(sx * at.getScaleX(), sy * at.getScaleY());
@@ -373,35 +435,66 @@ public class ViewPane extends JPanel implements MouseListener, MouseMotionListen
     //  Model to view mapping
     //
 
-    private Object findModel;
-
-    private Collection<View> traceFor(View v)
+    private final ModelViewIndex modelIndex = new ModelViewIndex(new ModelViewIndex.Listener()
     {
-        List<View> views = new ArrayList<>();
-        if( v.isActive() && v.getModel() == findModel )
+        @Override
+        public void viewAdded(CompositeView parent, View view)
+        {
+            if( tileCache != null )
+                repaintView(view.getBounds());
+        }
+
+        @Override
+        public void viewRemoved(CompositeView parent, View view)
         {
-            views.add(v);
+            if( tileCache != null )
+                repaintView(view.getBounds());
         }
-        else if( v instanceof CompositeView )
+
+        @Override
+        public void viewChanged(CompositeView parent, View view, Rectangle oldBounds)
         {
-            for(View vv: (CompositeView)v)
+            if( tileCache == null )
+                return;
+            if( oldBounds == null )
             {
-                Collection<View> col = traceFor(vv);
-                views.addAll(col);
+                repaint();
+                return;
+            }
+            Rectangle bounds = view.getBounds();
+            if( !bounds.equals(oldBounds) )
+            {
+                repaintView(oldBounds);
+                repaintView(bounds);
             }
+        }
 
+        @Override
+        public void childrenChanged(CompositeView parent, Rectangle oldBounds)
+        {
+            if( tileCache == null )
+                return;
+            if( oldBounds == null )
+            {
+                repaint();
+                return;
+            }
+            // children are moved together, so tiles are invalidated once for all of them
+            repaintView(oldBounds);
+            repaintView(parent.getBounds());
         }
-        return views;
-    }
+    });
 
     /**
-     * TODO: take into account that many views can have the same model
+     * Returns all active views representing the specified model.
+     * Nested views of the found view are not included even if they have the same model.
+     * Views of {@link ru.biosoft.graphics.VirtualCompositeView} are returned only if they are already created, e.g. painted.
      */
     public View[] getView(Object model)
     {
-        findModel = model;
-        ArrayList<View> vec = new ArrayList<View>(traceFor(cView));
-        return vec.toArray(new View[] {});
+        if( modelIndex.getRoot() != cView )
+            modelIndex.setRoot(cView);
+        return modelIndex.getViews(model);
     }
 
     
@@ -640,6 +733,7 @@ public class ViewPane extends JPanel implements MouseListener, MouseMotionListen
                 return;
 
             Graphics2D g2 = (Graphics2D)g;
+            deviceTransform = g2.getTransform();
             g2.transform(at);
             g2.translate(-offset.x, -offset.y);
 
@@ -648,17 +742,17 @@ public class ViewPane extends JPanel implements MouseListener, MouseMotionListen
                 if( gridOptions.getGridStyle() == GridStyle.BACKGROUND_GRID )
                 {
                     paintGrid(g2);
-                    cView.paint((Graphics2D)g);
+                    paintView(g2);
                 }
                 else
                 {
-                    cView.paint((Graphics2D)g);
+                    paintView(g2);
                     paintGrid(g2);
                 }
             }
             else
             {
-                cView.paint((Graphics2D)g);
+                paintView(g2);
             }
 
             if( selectionManager != null )
@@ -669,6 +763,31 @@ public class ViewPane extends JPanel implements MouseListener, MouseMotionListen
             g2.translate(offset.x, offset.y);
         }
 
+        /** Transform of the panel graphics before view scaling */
+        private AffineTransform deviceTransform;
+
+        protected void paintView(Graphics2D g2)
+        {
+            // tiles are used only for the screen, printing and export are done directly
+            if( tileCache != null && this == mPanel && !isPaintingForPrint() )
+            {
+                AffineTransform transform = g2.getTransform();
+                g2.setTransform(deviceTransform);
+                try
+                {
+                    tileCache.paint(g2, cView, at, offset);
+                }
+                finally
+                {
+                    g2.setTransform(transform);
+                }
+            }
+            else
+            {
+                cView.paint(g2);
+            }
+        }
+
         protected void paintGrid(Graphics2D g2)
         {
             // define whether grid should be shown
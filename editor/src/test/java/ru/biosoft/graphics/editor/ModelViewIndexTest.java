@@ -0,0 +1,205 @@
+package ru.biosoft.graphics.editor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ru.biosoft.graphics.BoxView;
+import ru.biosoft.graphics.CompositeView;
+import ru.biosoft.graphics.EllipseView;
+import ru.biosoft.graphics.LazyCompositeView;
+import ru.biosoft.graphics.Pen;
+import ru.biosoft.graphics.View;
+
+public class ModelViewIndexTest
+{
+    /** Resolves models by their names, so models of views created from JSON are kept */
+    private static final View.ModelResolver NAMES = new View.ModelResolver()
+    {
+        @Override
+        public String toString(Object model)
+        {
+            return model.toString();
+        }
+
+        @Override
+        public Object fromString(String name)
+        {
+            return name.intern();
+        }
+    };
+
+    private static final Pen PEN = new Pen(1, Color.darkGray);
+
+    private static View createActive(View view, Object model)
+    {
+        view.setModel(model);
+        view.setActive(true);
+        return view;
+    }
+
+    private static void assertViews(ModelViewIndex index, Object model, View ... expected)
+    {
+        View[] views = index.getViews(model);
+        assertEquals(expected.length, views.length);
+        for( int i = 0; i < expected.length; i++ )
+            assertSame(expected[i], views[i]);
+    }
+
+    @Test
+    public void testAddRemove() throws Exception
+    {
+        Object compartment = new Object();
+        Object node = new Object();
+        CompositeView root = new CompositeView();
+        CompositeView compartmentView = (CompositeView)createActive(new CompositeView(), compartment);
+        // title of the compartment has the same model and is hidden by the compartment view
+        View title = createActive(new BoxView(PEN, null, 0, 0, 100, 10), compartment);
+        compartmentView.add(title);
+        root.add(compartmentView);
+
+        ModelViewIndex index = new ModelViewIndex();
+        index.setRoot(root);
+        assertViews(index, compartment, compartmentView);
+        assertViews(index, node);
+
+        View nodeView = createActive(new EllipseView(PEN, null, 50, 50, 20, 20), node);
+        compartmentView.add(nodeView);
+        View copy = createActive(new BoxView(PEN, null, 200, 0, 10, 10), node);
+        root.add(copy);
+        assertViews(index, node, nodeView, copy);
+
+        compartmentView.remove(nodeView);
+        assertViews(index, node, copy);
+
+        root.remove(compartmentView);
+        assertViews(index, compartment);
+        // removed composite is not tracked anymore
+        compartmentView.add(createActive(new BoxView(PEN, null, 0, 0, 5, 5), node));
+        assertViews(index, node, copy);
+
+        // title is found when the compartment view is not active
+        root.add(compartmentView);
+        compartmentView.setActive(false);
+        assertViews(index, compartment, title);
+    }
+
+    @Test
+    public void testNestedMove() throws Exception
+    {
+        Object outer = new Object();
+        Object inner = new Object();
+        Object leaf = new Object();
+        CompositeView root = new CompositeView();
+        CompositeView outerView = (CompositeView)createActive(new CompositeView(), outer);
+        CompositeView innerView = (CompositeView)createActive(new CompositeView(), inner);
+        View leafView = createActive(new BoxView(PEN, null, 10, 10, 20, 20), leaf);
+        innerView.add(leafView);
+        outerView.add(innerView);
+        outerView.add(new BoxView(PEN, null, 100, 100, 10, 10));
+        root.add(outerView);
+
+        List<Rectangle> changed = new ArrayList<>();
+        ModelViewIndex index = new ModelViewIndex(new ModelViewIndex.Listener()
+        {
+            @Override
+            public void viewAdded(CompositeView parent, View view)
+            {
+            }
+
+            @Override
+            public void viewRemoved(CompositeView parent, View view)
+            {
+            }
+
+            @Override
+            public void viewChanged(CompositeView parent, View view, Rectangle oldBounds)
+            {
+                changed.add(oldBounds);
+            }
+
+            @Override
+            public void childrenChanged(CompositeView parent, Rectangle oldBounds)
+            {
+                changed.add(oldBounds);
+            }
+        });
+        index.setRoot(root);
+
+        Rectangle leafBounds = leafView.getBounds();
+        leafView.move(5, 5);
+        assertEquals(leafBounds, changed.get(0));
+        assertViews(index, leaf, leafView);
+
+        // moved composite reports its children once and its own change to the parent
+        changed.clear();
+        Rectangle outerBounds = outerView.getBounds();
+        outerView.move(-10, 40);
+        assertTrue(changed.contains(outerBounds));
+        assertTrue(changed.size() <= 4);
+        assertViews(index, outer, outerView);
+        assertViews(index, inner, innerView);
+        assertViews(index, leaf, leafView);
+
+        // index keeps bounds of the moved views, so the next change reports the new position
+        changed.clear();
+        leafBounds = leafView.getBounds();
+        leafView.move(1, 0);
+        assertEquals(leafBounds, changed.get(0));
+
+        // moved subtree is still tracked
+        View added = createActive(new BoxView(PEN, null, 0, 0, 5, 5), leaf);
+        innerView.add(added);
+        assertViews(index, leaf, leafView, added);
+    }
+
+    @Test
+    public void testLazyTree() throws Exception
+    {
+        CompositeView root = new CompositeView();
+        for( int i = 0; i < 3; i++ )
+        {
+            CompositeView node = new CompositeView();
+            node.setModel("node" + i);
+            node.setActive(true);
+            BoxView box = new BoxView(new Pen(1, Color.black), null, i * 40, 0, 30, 30);
+            box.setModel("box" + i);
+            box.setActive(true);
+            node.add(box);
+            root.add(node);
+        }
+
+        // nested lazy views are created from JSON while the tree is indexed
+        View.ModelResolver resolver = View.getModelResolver();
+        View.setModelResolver(NAMES);
+        try
+        {
+            LazyCompositeView lazy = (LazyCompositeView)View.fromJSON(LazyCompositeView.toLazyJSON(root));
+            assertFalse(lazy.isLoaded());
+
+            ModelViewIndex index = new ModelViewIndex();
+            index.setRoot(lazy);
+            assertTrue(lazy.isLoaded());
+            for( int i = 0; i < 3; i++ )
+            {
+                View[] views = index.getViews(( "box" + i ).intern());
+                assertEquals(1, views.length);
+                assertSame(( (CompositeView)lazy.elementAt(i) ).elementAt(0), views[0]);
+                assertEquals(1, index.getViews(( "node" + i ).intern()).length);
+            }
+            assertEquals(root.getBounds(), lazy.getBounds());
+        }
+        finally
+        {
+            View.setModelResolver(resolver);
+        }
+    }
+}
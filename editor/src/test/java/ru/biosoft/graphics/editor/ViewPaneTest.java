@@ -0,0 +1,108 @@
+package ru.biosoft.graphics.editor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+import ru.biosoft.graphics.BoxView;
+import ru.biosoft.graphics.Brush;
+import ru.biosoft.graphics.CompositeView;
+import ru.biosoft.graphics.Pen;
+import ru.biosoft.graphics.View;
+
+public class ViewPaneTest
+{
+    private static final int SIZE = 512;
+    private static final int TILE = 64;
+
+    /** Counts invalidated areas */
+    private static class CountingTileCache extends TileCache
+    {
+        int invalidations = 0;
+
+        CountingTileCache()
+        {
+            super(TILE, DEFAULT_MEMORY_BUDGET);
+        }
+
+        @Override
+        public void invalidate(Rectangle area)
+        {
+            invalidations++;
+            super.invalidate(area);
+        }
+    }
+
+    private static BufferedImage paint(View view, TileCache cache)
+    {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try
+        {
+            g.setClip(0, 0, SIZE, SIZE);
+            if( cache == null )
+                view.paint(g);
+            else
+                cache.paint(g, view, new AffineTransform(), new Point());
+        }
+        finally
+        {
+            g.dispose();
+        }
+        return image;
+    }
+
+    private static void assertSameImage(BufferedImage expected, BufferedImage actual)
+    {
+        for( int y = 0; y < SIZE; y++ )
+        {
+            for( int x = 0; x < SIZE; x++ )
+            {
+                if( expected.getRGB(x, y) != actual.getRGB(x, y) )
+                    throw new AssertionError("Pixels differ at " + x + ", " + y);
+            }
+        }
+    }
+
+    @Test
+    public void testTilesAfterMove() throws Exception
+    {
+        CompositeView root = new CompositeView();
+        CompositeView row = new CompositeView();
+        for( int i = 0; i < 8; i++ )
+            row.add(new BoxView(new Pen(1, Color.blue), new Brush(Color.yellow), 10 + i * 60, 400, 30, 30));
+        root.add(row);
+        View box = new BoxView(new Pen(2, Color.red), null, 20, 20, 20, 20);
+        root.add(box);
+
+        ViewPane pane = new ViewPane();
+        CountingTileCache cache = new CountingTileCache();
+        pane.setTileCache(cache);
+        pane.setView(root);
+        paint(root, cache);
+        int tiles = ( SIZE / TILE ) * ( SIZE / TILE );
+        assertEquals(tiles, cache.getTileCount());
+
+        // only tiles under the old and new positions are dropped
+        box.move(200, 100);
+        assertTrue(cache.getTileCount() < tiles);
+        assertTrue(cache.getTileCount() >= tiles - 8);
+        assertSameImage(paint(root, null), paint(root, cache));
+        assertEquals(tiles, cache.getTileCount());
+
+        // children of the moved composite are invalidated together
+        cache.invalidations = 0;
+        row.move(0, -40);
+        assertTrue(cache.invalidations <= 4);
+        assertTrue(cache.getTileCount() >= tiles - 2 * ( SIZE / TILE ) * 2);
+        assertSameImage(paint(root, null), paint(root, cache));
+    }
+}